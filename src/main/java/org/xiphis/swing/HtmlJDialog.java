@@ -30,10 +30,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 import org.xiphis.swing.intern.HtmlContext;
 import org.xiphis.swing.intern.HtmlEvent;
+import org.xiphis.swing.intern.HtmlFuture;
 import org.xiphis.swing.intern.HtmlIface;
+import org.xiphis.swing.intern.HtmlTemplate;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -46,6 +50,11 @@ public class HtmlJDialog extends JDialog implements HtmlIface {
         panel.context().init();
     }
 
+    public HtmlJDialog(Frame owner, HtmlTemplate template, boolean modal) {
+        this(owner, template.newContext(), modal);
+        panel.context().init();
+    }
+
     public HtmlJDialog(Frame owner, HtmlContext context, boolean modal) {
         super(owner, context.document().title(), modal);
 
@@ -67,6 +76,51 @@ public class HtmlJDialog extends JDialog implements HtmlIface {
         doLayout();
     }
 
+    /**
+     * Prepares a modeless dialog without blocking the calling thread; see
+     * {@link #prepareAsync(Frame, String, boolean, Executor)}.
+     */
+    public static HtmlFuture<HtmlJDialog> prepareAsync(Frame owner, String html) {
+        return prepareAsync(owner, html, false);
+    }
+
+    /**
+     * Prepares a dialog without blocking the calling thread; see
+     * {@link #prepareAsync(Frame, String, boolean, Executor)}.
+     */
+    public static HtmlFuture<HtmlJDialog> prepareAsync(Frame owner, String html, boolean modal) {
+        return prepareAsync(owner, html, modal, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepares a dialog without blocking the calling thread. The document is parsed, its
+     * style sheets loaded and its styles resolved on {@code executor}; the dialog is
+     * created on the event dispatch thread, but not shown.
+     *
+     * @param owner the owner of the dialog
+     * @param html the document
+     * @param modal whether the dialog is modal
+     * @param executor the executor for the document work
+     * @return the dialog, once created
+     */
+    public static HtmlFuture<HtmlJDialog> prepareAsync(Frame owner, String html, boolean modal, Executor executor) {
+        return HtmlFuture.prepare(() -> HtmlTemplate.compile(html), context -> {
+            HtmlJDialog dialog = new HtmlJDialog(owner, context, modal);
+            context.init();
+            return dialog;
+        }, executor);
+    }
+
+    /**
+     * Updates the dialog to show another document, rebuilding only the parts that changed.
+     *
+     * @param html the new document
+     */
+    public void setHtml(String html) {
+        panel.setHtml(html);
+        setTitle(context().document().title());
+    }
+
     public HtmlJDialog onSubmit(Predicate<HtmlEvent> handler) {
         panel.onSubmit(handler);
         return this;
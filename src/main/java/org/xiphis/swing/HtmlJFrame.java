@@ -30,10 +30,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 import org.xiphis.swing.intern.HtmlContext;
 import org.xiphis.swing.intern.HtmlEvent;
+import org.xiphis.swing.intern.HtmlFuture;
 import org.xiphis.swing.intern.HtmlIface;
+import org.xiphis.swing.intern.HtmlTemplate;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -80,6 +84,10 @@ public class HtmlJFrame extends JFrame implements HtmlIface {
         this(gc, new HtmlContext(html));
     }
 
+    public HtmlJFrame(HtmlTemplate template) {
+        this(null, template.newContext());
+    }
+
     public HtmlJFrame(GraphicsConfiguration gc, HtmlContext context) {
         super(context.document().title(), gc);
         init(context);
@@ -103,6 +111,37 @@ public class HtmlJFrame extends JFrame implements HtmlIface {
         doLayout();
     }
 
+    /**
+     * Prepares a frame without blocking the calling thread; see
+     * {@link #prepareAsync(String, Executor)}.
+     */
+    public static HtmlFuture<HtmlJFrame> prepareAsync(String html) {
+        return prepareAsync(html, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepares a frame without blocking the calling thread. The document is parsed, its
+     * style sheets loaded and its styles resolved on {@code executor}; the frame is
+     * created on the event dispatch thread, but not shown.
+     *
+     * @param html the document
+     * @param executor the executor for the document work
+     * @return the frame, once created
+     */
+    public static HtmlFuture<HtmlJFrame> prepareAsync(String html, Executor executor) {
+        return HtmlFuture.prepare(() -> HtmlTemplate.compile(html), context -> new HtmlJFrame(null, context), executor);
+    }
+
+    /**
+     * Updates the frame to show another document, rebuilding only the parts that changed.
+     *
+     * @param html the new document
+     */
+    public void setHtml(String html) {
+        panel.setHtml(html);
+        setTitle(context().document().title());
+    }
+
     public HtmlJFrame onSubmit(Predicate<HtmlEvent> handler) {
         panel.onSubmit(handler);
         return this;
@@ -30,10 +30,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 import org.jsoup.nodes.Element;
 import org.xiphis.swing.intern.HtmlContext;
+import org.xiphis.swing.intern.HtmlFuture;
 import org.xiphis.swing.intern.HtmlIface;
 import org.xiphis.swing.intern.HtmlPanel;
+import org.xiphis.swing.intern.HtmlTemplate;
 
 import java.awt.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class HtmlJPanel extends HtmlPanel implements HtmlIface {
     public HtmlJPanel(String html) {
@@ -41,6 +45,11 @@ public class HtmlJPanel extends HtmlPanel implements HtmlIface {
         context().init();
     }
 
+    public HtmlJPanel(HtmlTemplate template) {
+        this(template.newContext());
+        context().init();
+    }
+
     private HtmlJPanel(HtmlContext context) {
         this(context, context.document());
     }
@@ -48,4 +57,24 @@ public class HtmlJPanel extends HtmlPanel implements HtmlIface {
     HtmlJPanel(HtmlContext context, Element body) {
         super(context, body);
     }
+
+    public static HtmlFuture<HtmlJPanel> prepareAsync(String html) {
+        return prepareAsync(html, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepares a panel without blocking the calling thread. The document is parsed and
+     * styled on {@code executor}; the panel is created on the event dispatch thread.
+     *
+     * @param html the document fragment
+     * @param executor the executor for the document work
+     * @return the panel, once created
+     */
+    public static HtmlFuture<HtmlJPanel> prepareAsync(String html, Executor executor) {
+        return HtmlFuture.prepare(() -> HtmlTemplate.compile(html, true), context -> {
+            HtmlJPanel panel = new HtmlJPanel(context);
+            context.init();
+            return panel;
+        }, executor);
+    }
 }
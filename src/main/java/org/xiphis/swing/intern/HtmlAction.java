@@ -29,6 +29,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +42,7 @@ import java.awt.event.ActionEvent;
 import java.beans.PropertyChangeEvent;
 import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Objects;
 
 public class HtmlAction extends AbstractAction {
 
@@ -48,6 +50,7 @@ public class HtmlAction extends AbstractAction {
 
     private final HtmlContext context;
     private final Map<Component, Element> elementMap;
+    private boolean dirty;
 
     public HtmlAction(HtmlContext context, String name) {
         super(name);
@@ -67,6 +70,40 @@ public class HtmlAction extends AbstractAction {
         return elementMap.get(comp);
     }
 
+    /**
+     * Sets a value; a change of {@link Action#SELECTED_KEY} marks the action dirty.
+     *
+     * @param key the key
+     * @param newValue the value
+     */
+    @Override
+    public void putValue(String key, Object newValue) {
+        if (SELECTED_KEY.equals(key) && !Objects.equals(getValue(key), newValue)) {
+            dirty = true;
+        }
+        super.putValue(key, newValue);
+    }
+
+    /**
+     * @return {@code true} if the value changed since it was last written or set from JSON
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    void clean() {
+        dirty = false;
+    }
+
+    /**
+     * Moves the elements of the components onto their copies.
+     *
+     * @param nodes the copy of each node
+     */
+    void remap(Map<Node, Node> nodes) {
+        elementMap.replaceAll((comp, el) -> (Element) nodes.getOrDefault(el, el));
+    }
+
 
     /**
      * Invoked when an action occurs.
@@ -80,7 +117,7 @@ public class HtmlAction extends AbstractAction {
 
     static abstract class Abstract extends AbstractAction {
         final HtmlAction htmlAction;
-        final Element element;
+        Element element;
 
         Abstract(String name, Element element, HtmlAction htmlAction) {
             super(name);
@@ -92,6 +129,10 @@ public class HtmlAction extends AbstractAction {
             }
         }
 
+        void remap(Map<Node, Node> nodes) {
+            element = (Element) nodes.getOrDefault(element, element);
+        }
+
         @Override
         public void actionPerformed(ActionEvent e) {
             htmlAction.elementMap.put((Component) e.getSource(), element);
@@ -106,7 +147,7 @@ public class HtmlAction extends AbstractAction {
             if ("input".equals(element.tagName()) && "image".equals(element.attr("type"))) {
                 String src = element.attr("src");
                 try {
-                    putValue(Action.SMALL_ICON, new ImageIcon(htmlAction.context().forResource(src)));
+                    putValue(Action.SMALL_ICON, HtmlImages.icon(htmlAction.context().forResource(src), -1, -1));
                 } catch (Exception ex) {
                     //TODO
                 }
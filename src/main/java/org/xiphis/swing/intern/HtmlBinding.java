@@ -0,0 +1,212 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Binds values pushed from any thread to the named fields of a document.
+ * <p>
+ * Updates only record the latest value of their field; a value replaced before it was shown
+ * counts as coalesced. Once per frame the pending values are applied together on the event
+ * dispatch thread, so a field updated a thousand times within a frame fires its listeners,
+ * parses its value and repaints once. Values for names the document has no field for, and
+ * values arriving after {@link #close()}, count as dropped.
+ * <p>
+ * Updates are offered with {@link #put}, {@link #setValues} or by subscribing the binding to
+ * a {@link Flow.Publisher} of name and value pairs, such as a
+ * {@link java.util.concurrent.SubmissionPublisher}. As updates are coalesced, the binding
+ * requests them without bound.
+ */
+public final class HtmlBinding implements Flow.Subscriber<Map.Entry<String, ?>>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlBinding.class);
+
+    // stands in for null, which the pending map cannot hold
+    private static final Object NULL = new Object();
+
+    private final HtmlContext context;
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final Timer timer;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean closed;
+
+    HtmlBinding(HtmlContext context, int frameMillis) {
+        this.context = Objects.requireNonNull(context);
+        timer = new Timer(frameMillis, e -> flush());
+        timer.setRepeats(false);
+        // a coalesced tick would be lost, leaving the next batch scheduled but never run
+        timer.setCoalesce(false);
+    }
+
+    /**
+     * Sets the value of a field with the next frame. May be called from any thread.
+     *
+     * @param name the name of the field
+     * @param value the value, or {@code null}
+     */
+    public void put(String name, Object value) {
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+        if (pending.put(Objects.requireNonNull(name), value != null ? value : NULL) != null) {
+            coalesced.increment();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Sets the values of the fields named by the keys of a JSON object with the next frame,
+     * as {@link HtmlContext#setValues(JsonObject)} would. May be called from any thread.
+     *
+     * @param jsonObject the values
+     */
+    public void setValues(JsonObject jsonObject) {
+        for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+            JsonElement value = entry.getValue();
+            if (value.isJsonNull()) {
+                put(entry.getKey(), null);
+            } else if (value.isJsonPrimitive()) {
+                JsonPrimitive primitive = value.getAsJsonPrimitive();
+                if (primitive.isBoolean()) {
+                    put(entry.getKey(), primitive.getAsBoolean());
+                } else if (primitive.isNumber()) {
+                    put(entry.getKey(), primitive.getAsNumber());
+                } else {
+                    put(entry.getKey(), primitive.getAsString());
+                }
+            } else {
+                dropped.increment();
+            }
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null || closed) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(Map.Entry<String, ?> item) {
+        put(item.getKey(), item.getValue());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        LOG.warn("Update publisher failed", throwable);
+        subscription = null;
+    }
+
+    @Override
+    public void onComplete() {
+        subscription = null;
+    }
+
+    /**
+     * Stops the binding: cancels its subscription and drops all later updates. Values
+     * already pending are still applied.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription subscription = this.subscription;
+        this.subscription = null;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * @return the number of updates replaced by a later value before they were applied
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the number of updates discarded, for unknown fields or after closing
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of values applied to fields
+     */
+    public long getAppliedCount() {
+        return applied.sum();
+    }
+
+    // runs on the event dispatch thread, once per frame with pending values
+    private void flush() {
+        // cleared first, so that an update racing with this batch schedules the next one
+        scheduled.set(false);
+        Iterator<Map.Entry<String, Object>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object> entry = it.next();
+            Object value = entry.getValue();
+            // removes this value only, not one put since it was read
+            if (!pending.remove(entry.getKey(), value)) {
+                continue;
+            }
+            HtmlAction action = context.action(entry.getKey());
+            if (action == null) {
+                dropped.increment();
+                continue;
+            }
+            action.putValue(Action.SELECTED_KEY, value != NULL ? value : null);
+            applied.increment();
+        }
+    }
+}
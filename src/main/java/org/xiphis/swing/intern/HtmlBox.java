@@ -0,0 +1,231 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Node;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextLayout;
+import java.text.AttributedString;
+
+/**
+ * Static content that {@link HtmlLayout} lays out and its container paints directly,
+ * without a component; see {@link HtmlContext#setPaintOnly(boolean)}.
+ */
+abstract class HtmlBox {
+
+    final Node node;
+
+    HtmlBox(Node node) {
+        this.node = node;
+    }
+
+    float getAlignmentX() {
+        return Component.LEFT_ALIGNMENT;
+    }
+
+    float getAlignmentY() {
+        return Component.CENTER_ALIGNMENT;
+    }
+
+    abstract Dimension getMinimumSize();
+
+    abstract Dimension getPreferredSize();
+
+    abstract Dimension getMaximumSize();
+
+    /**
+     * Paints the box, or one line fragment of a text box, in the container's coordinates.
+     */
+    abstract void paint(Graphics2D g, TextLayout fragment, int x, int y, int width, int height);
+
+    /**
+     * A run of text, wrapped by the layout like {@link HtmlText}.
+     */
+    static final class Text extends HtmlBox implements HtmlLayout.TextRun {
+        private final String text;
+        private final Font font;
+        private final Color foreground;
+        private final FontRenderContext fontRenderContext;
+        private final int lineHeight;
+        private final int ascent;
+
+        Text(Node node, String text, Font font, Color foreground, FontMetrics metrics) {
+            super(node);
+            this.text = text;
+            this.font = font;
+            this.foreground = foreground;
+            this.fontRenderContext = metrics.getFontRenderContext();
+            this.lineHeight = metrics.getHeight();
+            this.ascent = metrics.getAscent();
+        }
+
+        @Override
+        public LineBreakMeasurer lineBreakMeasurer() {
+            return new LineBreakMeasurer(new AttributedString(text, font.getAttributes()).getIterator(), fontRenderContext);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public int lineHeight() {
+            return lineHeight;
+        }
+
+        @Override
+        Dimension getMinimumSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        Dimension getPreferredSize() {
+            TextLayout line = new TextLayout(new AttributedString(text, font.getAttributes()).getIterator(), fontRenderContext);
+            return new Dimension(HtmlText.width(line), lineHeight);
+        }
+
+        @Override
+        Dimension getMaximumSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        void paint(Graphics2D g, TextLayout fragment, int x, int y, int width, int height) {
+            if (fragment != null) {
+                g.setColor(foreground);
+                fragment.draw(g, x, y + ascent);
+            }
+        }
+    }
+
+    /**
+     * An image, drawn at its icon size.
+     */
+    static final class Image extends HtmlBox {
+        private final Icon icon;
+        // the panel painting the box, repainted by icons that are still loading
+        private final Component owner;
+
+        Image(Node node, Icon icon, Component owner) {
+            super(node);
+            this.icon = icon;
+            this.owner = owner;
+        }
+
+        @Override
+        Dimension getMinimumSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        Dimension getPreferredSize() {
+            return new Dimension(icon.getIconWidth(), icon.getIconHeight());
+        }
+
+        @Override
+        Dimension getMaximumSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        void paint(Graphics2D g, TextLayout fragment, int x, int y, int width, int height) {
+            icon.paintIcon(owner, g, x, y);
+        }
+    }
+
+    /**
+     * A horizontal rule, drawn as a {@link JSeparator} would be.
+     */
+    static final class Rule extends HtmlBox {
+        Rule(Node node) {
+            super(node);
+        }
+
+        @Override
+        Dimension getMinimumSize() {
+            return new Dimension(0, 2);
+        }
+
+        @Override
+        Dimension getPreferredSize() {
+            return new Dimension(0, 2);
+        }
+
+        @Override
+        Dimension getMaximumSize() {
+            return new Dimension(Short.MAX_VALUE, 2);
+        }
+
+        @Override
+        void paint(Graphics2D g, TextLayout fragment, int x, int y, int width, int height) {
+            Color foreground = UIManager.getColor("Separator.foreground");
+            Color background = UIManager.getColor("Separator.background");
+            g.setColor(foreground != null ? foreground : Color.GRAY);
+            g.drawLine(x, y, x + width, y);
+            g.setColor(background != null ? background : Color.WHITE);
+            g.drawLine(x, y + 1, x + width, y + 1);
+        }
+    }
+
+    /**
+     * Empty space the size of a character, used for line breaks.
+     */
+    static final class Strut extends HtmlBox {
+        private final Dimension size;
+
+        Strut(Node node, FontMetrics metrics) {
+            super(node);
+            this.size = new Dimension(metrics.charWidth(' '), metrics.getHeight());
+        }
+
+        @Override
+        Dimension getMinimumSize() {
+            return new Dimension(size);
+        }
+
+        @Override
+        Dimension getPreferredSize() {
+            return new Dimension(size);
+        }
+
+        @Override
+        Dimension getMaximumSize() {
+            return new Dimension(size);
+        }
+
+        @Override
+        void paint(Graphics2D g, TextLayout fragment, int x, int y, int width, int height) {
+        }
+    }
+}
@@ -32,14 +32,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.TreeMap;
 
+/**
+ * Parses CSS colour values: named colours, {@code #rgb}, {@code #rgba}, {@code #rrggbb},
+ * {@code #rrggbbaa}, {@code rgb()}, {@code rgba()}, {@code hsl()} and {@code hsla()}.
+ * <p>
+ * Values are scanned in place without substrings or splitting, named colours are found
+ * through a perfect hash table, and parsed colours are interned so equal values share one
+ * {@link Color} instance.
+ */
 public final class HtmlColor {
 
     private static final Logger LOG = LoggerFactory.getLogger(HtmlColor.class);
-    private static final TreeMap<String, Color> COLOR_MAP;
+
+    // NAME_SEED was searched for offline so that every named colour below has its own slot
+    private static final int NAME_SEED = 10561;
+    private static final int NAME_TABLE_SIZE = 1024;
+    private static final String[] NAMES = new String[NAME_TABLE_SIZE];
+    private static final Color[] NAMED_COLORS = new Color[NAME_TABLE_SIZE];
+
+    // direct-mapped; Color is immutable, so racing writers only cost a duplicate instance
+    private static final int CACHE_SIZE = 1024;
+    private static final Color[] CACHE = new Color[CACHE_SIZE];
+
+    private static final long INVALID = -1L;
 
     private HtmlColor() {
     }
@@ -47,42 +63,297 @@ public final class HtmlColor {
     public static Color getColor(String nm) {
         return getColor(nm, null);
     }
+
     public static Color getColor(String nm, Color c) {
         int start = 0;
         int end = nm.length();
-        if (nm.endsWith(";")) {
+        while (start < end && Character.isWhitespace(nm.charAt(start))) {
+            start++;
+        }
+        while (end > start && (nm.charAt(end - 1) == ';' || Character.isWhitespace(nm.charAt(end - 1)))) {
             end--;
         }
+        if (start == end) {
+            return c;
+        }
+        if (nm.charAt(start) == '#') {
+            long argb = parseHex(nm, start + 1, end);
+            if (argb == INVALID) {
+                LOG.warn("Bad color: {}", nm);
+                return c;
+            }
+            return intern((int) argb);
+        }
+        int open = nm.indexOf('(', start);
+        if (open > 0 && open < end) {
+            long argb = nm.charAt(end - 1) != ')' ? INVALID : parseFunction(nm, start, open, end - 1);
+            if (argb == INVALID) {
+                LOG.warn("Bad color: {}", nm);
+                return c;
+            }
+            return intern((int) argb);
+        }
+        Color named = named(nm, start, end);
+        return named != null ? named : c;
+    }
+
+    /**
+     * @return the shared colour instance for a 32-bit ARGB value
+     */
+    static Color intern(int argb) {
+        int slot = (argb ^ (argb >>> 15) ^ (argb >>> 24)) & (CACHE_SIZE - 1);
+        Color color = CACHE[slot];
+        if (color == null || color.getRGB() != argb) {
+            color = new Color(argb, true);
+            CACHE[slot] = color;
+        }
+        return color;
+    }
+
+    private static long parseHex(String nm, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(nm.charAt(i), 16);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = (value << 4) | digit;
+        }
+        switch (end - start) {
+            case 3:
+                return 0xff000000L | expand(value >> 8) << 16 | expand(value >> 4) << 8 | expand(value);
+            case 4:
+                return (long) expand(value) << 24 | expand(value >> 12) << 16 | expand(value >> 8) << 8 | expand(value >> 4);
+            case 6:
+                return 0xff000000L | value;
+            case 8:
+                return (long) (value & 0xff) << 24 | value >>> 8;
+            default:
+                return INVALID;
+        }
+    }
+
+    private static int expand(int nibble) {
+        return (nibble & 15) * 0x11;
+    }
+
+    private static long parseFunction(String nm, int start, int open, int close) {
+        int length = open - start;
+        boolean alpha = length == 4 && Character.toLowerCase(nm.charAt(open - 1)) == 'a';
+        Scanner scanner = new Scanner(nm, open + 1, close);
+        if ((length == 3 || alpha) && nm.regionMatches(true, start, "rgb", 0, 3)) {
+            return scanner.rgb();
+        } else if ((length == 3 || alpha) && nm.regionMatches(true, start, "hsl", 0, 3)) {
+            return scanner.hsl();
+        }
+        return INVALID;
+    }
+
+    private static Color named(String nm, int start, int end) {
+        int slot = nameSlot(nm, start, end);
+        String name = NAMES[slot];
+        if (name != null && name.length() == end - start && name.regionMatches(true, 0, nm, start, end - start)) {
+            return NAMED_COLORS[slot];
+        }
+        return null;
+    }
+
+    private static int nameSlot(String nm, int start, int end) {
+        int hash = NAME_SEED;
+        for (int i = start; i < end; i++) {
+            char ch = nm.charAt(i);
+            if (ch >= 'A' && ch <= 'Z') {
+                ch += 'a' - 'A';
+            }
+            hash = (hash ^ ch) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        return hash & (NAME_TABLE_SIZE - 1);
+    }
+
+    private static void name(String name, Color color) {
+        int slot = nameSlot(name, 0, name.length());
+        if (NAMES[slot] != null) {
+            throw new Error("colour name hash collision: " + name + " " + NAMES[slot]);
+        }
+        NAMES[slot] = name;
+        NAMED_COLORS[slot] = color;
+    }
+
+    /**
+     * Scans the comma or space separated arguments of a colour function.
+     */
+    private static final class Scanner {
+        private final String text;
+        private final int end;
+        private int pos;
+        private boolean percent;
+
+        Scanner(String text, int pos, int end) {
+            this.text = text;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        long rgb() {
+            float r = number();
+            boolean percentages = percent;
+            float g = separator() ? number() : Float.NaN;
+            boolean mixed = percent != percentages;
+            float b = separator() ? number() : Float.NaN;
+            if (Float.isNaN(b) || mixed || percent != percentages) {
+                return INVALID;
+            }
+            float scale = percentages ? 2.55f : 1f;
+            return argb(alpha(), r * scale, g * scale, b * scale);
+        }
+
+        long hsl() {
+            float h = number();
+            if (Float.isNaN(h) || percent) {
+                return INVALID;
+            }
+            h = hue(h);
+            float s = separator() ? number() : Float.NaN;
+            float l = separator() ? number() : Float.NaN;
+            if (Float.isNaN(l)) {
+                return INVALID;
+            }
+            s = clamp(s / 100f, 1f);
+            l = clamp(l / 100f, 1f);
+            float q = l < 0.5f ? l * (1f + s) : l + s - l * s;
+            float p = 2f * l - q;
+            return argb(alpha(), 255f * hueToRgb(p, q, h + 1f / 3f), 255f * hueToRgb(p, q, h), 255f * hueToRgb(p, q, h - 1f / 3f));
+        }
 
-        if (nm.startsWith("rgb(")) {
-            end = nm.indexOf(')');
-            if (end > 0) {
-                String rgbString = nm.substring(4, end);
-                String[] rgb = rgbString.split("\\s*,\\s*");
-                if (rgb.length != 3) {
-                    LOG.warn("bad rgb: {} .. {}", nm, rgbString);
-                } else {
-                    c = new Color(Integer.parseUnsignedInt(rgb[0]), Integer.parseUnsignedInt(rgb[1]), Integer.parseUnsignedInt(rgb[2]));
+        /**
+         * @return the optional alpha argument scaled to 0..255, or -1 if it is malformed
+         */
+        private int alpha() {
+            skipSpace();
+            if (pos == end) {
+                return 255;
+            }
+            if (!separator() && !(pos < end && text.charAt(pos) == '/')) {
+                return -1;
+            }
+            if (pos < end && text.charAt(pos) == '/') {
+                pos++;
+            }
+            float a = number();
+            skipSpace();
+            if (Float.isNaN(a) || pos != end) {
+                return -1;
+            }
+            return Math.round(255f * clamp(percent ? a / 100f : a, 1f));
+        }
+
+        private boolean separator() {
+            int before = pos;
+            skipSpace();
+            if (pos < end && text.charAt(pos) == ',') {
+                pos++;
+                skipSpace();
+                return true;
+            }
+            return pos > before && pos < end && text.charAt(pos) != '/';
+        }
+
+        private float number() {
+            skipSpace();
+            int start = pos;
+            boolean negative = false;
+            if (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+                negative = text.charAt(pos++) == '-';
+            }
+            double value = 0;
+            boolean digits = false;
+            while (pos < end && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                value = value * 10 + (text.charAt(pos++) - '0');
+                digits = true;
+            }
+            if (pos < end && text.charAt(pos) == '.') {
+                pos++;
+                double scale = 0.1;
+                while (pos < end && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                    value += (text.charAt(pos++) - '0') * scale;
+                    scale /= 10;
+                    digits = true;
                 }
             }
-        } else if (nm.startsWith("#")) {
-            start++;
-            if (end - start == 3) {
-                int cs = Integer.parseUnsignedInt(nm, start, end, 16);
-                float r = ((cs >> 8) & 15) / 15f;
-                float g = ((cs >> 4) & 15) / 15f;
-                float b = ((cs >> 0) & 15) / 15f;
-                c = new Color(r, g, b);
-            } else if (end - start == 6) {
-                c = Color.getColor(nm.substring(start, end), c);
+            if (!digits) {
+                pos = start;
+                return Float.NaN;
+            }
+            percent = pos < end && text.charAt(pos) == '%';
+            if (percent) {
+                pos++;
+            }
+            return (float) (negative ? -value : value);
+        }
+
+        /**
+         * Reads an optional angle unit and normalizes the hue to turns in 0..1.
+         */
+        private float hue(float value) {
+            float turns;
+            if (unit("deg")) {
+                turns = value / 360f;
+            } else if (unit("grad")) {
+                turns = value / 400f;
+            } else if (unit("rad")) {
+                turns = (float) (value / (2 * Math.PI));
+            } else if (unit("turn")) {
+                turns = value;
             } else {
-                LOG.warn("Bad color: {}", nm);
+                turns = value / 360f;
+            }
+            return turns - (float) Math.floor(turns);
+        }
+
+        private boolean unit(String unit) {
+            if (text.regionMatches(true, pos, unit, 0, unit.length())) {
+                pos += unit.length();
+                return true;
             }
-        } else {
-            c = COLOR_MAP.getOrDefault(nm.substring(start, end), c);
+            return false;
         }
 
-        return c;
+        private void skipSpace() {
+            while (pos < end && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static float hueToRgb(float p, float q, float t) {
+            if (t < 0f) {
+                t += 1f;
+            } else if (t > 1f) {
+                t -= 1f;
+            }
+            if (t < 1f / 6f) {
+                return p + (q - p) * 6f * t;
+            } else if (t < 1f / 2f) {
+                return q;
+            } else if (t < 2f / 3f) {
+                return p + (q - p) * (2f / 3f - t) * 6f;
+            }
+            return p;
+        }
+
+        private static float clamp(float value, float max) {
+            return value < 0f ? 0f : Math.min(value, max);
+        }
+
+        private static long argb(int alpha, float r, float g, float b) {
+            if (alpha < 0 || Float.isNaN(r) || Float.isNaN(g) || Float.isNaN(b)) {
+                return INVALID;
+            }
+            return (long) alpha << 24
+                    | Math.round(clamp(r, 255f)) << 16
+                    | Math.round(clamp(g, 255f)) << 8
+                    | Math.round(clamp(b, 255f));
+        }
     }
 
     public static final Color transparent = new Color(0, 0, 0, 0);
@@ -229,19 +500,147 @@ public final class HtmlColor {
     public static final Color yellowgreen = new Color(0x9acd32);
 
     static {
-        COLOR_MAP = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-
-        try {
-            for (Field f : HtmlColor.class.getDeclaredFields()) {
-                if (!Modifier.isStatic(f.getModifiers())) {
-                    continue;
-                }
-                if (Color.class.isAssignableFrom(f.getType())) {
-                    COLOR_MAP.put(f.getName(), (Color) f.get(null));
-                }
-            }
-        } catch (Exception e) {
-            throw new Error(e);
-        }
+        name("transparent", transparent);
+        name("aliceblue", aliceblue);
+        name("antiquewhite", antiquewhite);
+        name("aqua", aqua);
+        name("aquamarine", aquamarine);
+        name("azure", azure);
+        name("beige", beige);
+        name("bisque", bisque);
+        name("black", black);
+        name("blanchedalmond", blanchedalmond);
+        name("blue", blue);
+        name("blueviolet", blueviolet);
+        name("brown", brown);
+        name("burlywood", burlywood);
+        name("cadetblue", cadetblue);
+        name("chartreuse", chartreuse);
+        name("chocolate", chocolate);
+        name("coral", coral);
+        name("cornflowerblue", cornflowerblue);
+        name("cornsilk", cornsilk);
+        name("crimson", crimson);
+        name("cyan", cyan);
+        name("darkblue", darkblue);
+        name("darkcyan", darkcyan);
+        name("darkgoldenrod", darkgoldenrod);
+        name("darkgray", darkgray);
+        name("darkgreen", darkgreen);
+        name("darkkhaki", darkkhaki);
+        name("darkmagenta", darkmagenta);
+        name("darkolivegreen", darkolivegreen);
+        name("darkorange", darkorange);
+        name("darkorchid", darkorchid);
+        name("darkred", darkred);
+        name("darksalmon", darksalmon);
+        name("darkseagreen", darkseagreen);
+        name("darkslateblue", darkslateblue);
+        name("darkslategray", darkslategray);
+        name("darkturquoise", darkturquoise);
+        name("darkviolet", darkviolet);
+        name("deeppink", deeppink);
+        name("deepskyblue", deepskyblue);
+        name("dimgray", dimgray);
+        name("dodgerblue", dodgerblue);
+        name("firebrick", firebrick);
+        name("floralwhite", floralwhite);
+        name("forestgreen", forestgreen);
+        name("fuchsia", fuchsia);
+        name("gainsboro", gainsboro);
+        name("ghostwhite", ghostwhite);
+        name("gold", gold);
+        name("goldenrod", goldenrod);
+        name("gray", gray);
+        name("green", green);
+        name("greenyellow", greenyellow);
+        name("honeydew", honeydew);
+        name("hotpink", hotpink);
+        name("indianred", indianred);
+        name("indigo", indigo);
+        name("ivory", ivory);
+        name("khaki", khaki);
+        name("lavender", lavender);
+        name("lavenderblush", lavenderblush);
+        name("lawngreen", lawngreen);
+        name("lemonchiffon", lemonchiffon);
+        name("lightblue", lightblue);
+        name("lightcoral", lightcoral);
+        name("lightcyan", lightcyan);
+        name("lightgoldenrodyellow", lightgoldenrodyellow);
+        name("lightgreen", lightgreen);
+        name("lightgrey", lightgrey);
+        name("lightgray", lightgray);
+        name("lightpink", lightpink);
+        name("lightsalmon", lightsalmon);
+        name("lightseagreen", lightseagreen);
+        name("lightskyblue", lightskyblue);
+        name("lightslategray", lightslategray);
+        name("lightsteelblue", lightsteelblue);
+        name("lightyellow", lightyellow);
+        name("lime", lime);
+        name("limegreen", limegreen);
+        name("linen", linen);
+        name("magenta", magenta);
+        name("maroon", maroon);
+        name("mediumaquamarine", mediumaquamarine);
+        name("mediumblue", mediumblue);
+        name("mediumorchid", mediumorchid);
+        name("mediumpurple", mediumpurple);
+        name("mediumseagreen", mediumseagreen);
+        name("mediumslateblue", mediumslateblue);
+        name("mediumspringgreen", mediumspringgreen);
+        name("mediumturquoise", mediumturquoise);
+        name("mediumvioletred", mediumvioletred);
+        name("midnightblue", midnightblue);
+        name("mintcream", mintcream);
+        name("mistyrose", mistyrose);
+        name("moccasin", moccasin);
+        name("navajowhite", navajowhite);
+        name("navy", navy);
+        name("oldlace", oldlace);
+        name("olive", olive);
+        name("olivedrab", olivedrab);
+        name("orange", orange);
+        name("orangered", orangered);
+        name("orchid", orchid);
+        name("palegoldenrod", palegoldenrod);
+        name("palegreen", palegreen);
+        name("paleturquoise", paleturquoise);
+        name("palevioletred", palevioletred);
+        name("papayawhip", papayawhip);
+        name("peachpuff", peachpuff);
+        name("peru", peru);
+        name("pink", pink);
+        name("plum", plum);
+        name("powderblue", powderblue);
+        name("purple", purple);
+        name("red", red);
+        name("rosybrown", rosybrown);
+        name("royalblue", royalblue);
+        name("saddlebrown", saddlebrown);
+        name("salmon", salmon);
+        name("sandybrown", sandybrown);
+        name("seagreen", seagreen);
+        name("seashell", seashell);
+        name("sienna", sienna);
+        name("silver", silver);
+        name("skyblue", skyblue);
+        name("slateblue", slateblue);
+        name("slategray", slategray);
+        name("snow", snow);
+        name("springgreen", springgreen);
+        name("steelblue", steelblue);
+        name("tan", tan);
+        name("teal", teal);
+        name("thistle", thistle);
+        name("tomato", tomato);
+        name("turquoise", turquoise);
+        name("violet", violet);
+        name("wheat", wheat);
+        name("white", white);
+        name("whitesmoke", whitesmoke);
+        name("yellow", yellow);
+        name("yellowgreen", yellowgreen);
     }
 }
@@ -0,0 +1,157 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.swing.*;
+import javax.swing.border.Border;
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cascaded style of one element: every matching {@link HtmlStyle}, in cascade order,
+ * folded into the final value of each property.
+ * <p>
+ * Applying it touches each component property at most once, with a single derived
+ * {@link Font} instead of one per font property.
+ */
+public final class HtmlComputedStyle {
+
+    static final HtmlComputedStyle EMPTY = new HtmlComputedStyle();
+
+    // written by the HtmlStyle operations while the cascade is folded
+    Map<TextAttribute, Object> fontAttributes = Collections.emptyMap();
+    float fontSize = Float.NaN;
+    float fontScale = Float.NaN;
+    Color foreground;
+    Color background;
+    float alignmentX = Float.NaN;
+    Border border;
+    int verticalScrollBarPolicy = -1;
+    int horizontalScrollBarPolicy = -1;
+
+    private HtmlComputedStyle() {
+    }
+
+    /**
+     * Folds styles into their computed values; for each property the last style setting it wins.
+     *
+     * @param styles the styles, ordered by specificity and then source order
+     * @return the computed style
+     */
+    public static HtmlComputedStyle of(List<HtmlStyle> styles) {
+        if (styles.isEmpty()) {
+            return EMPTY;
+        }
+        HtmlComputedStyle computed = new HtmlComputedStyle();
+        for (HtmlStyle style : styles) {
+            style.apply(computed);
+        }
+        computed.fontAttributes = computed.fontAttributes.isEmpty()
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(computed.fontAttributes);
+        return computed;
+    }
+
+    void putFontAttribute(TextAttribute attribute, Object value) {
+        if (fontAttributes.isEmpty()) {
+            fontAttributes = new HashMap<>();
+        }
+        fontAttributes.put(attribute, value);
+    }
+
+    boolean hasFont() {
+        return !fontAttributes.isEmpty() || !Float.isNaN(fontSize) || !Float.isNaN(fontScale);
+    }
+
+    /**
+     * Derives the font for this style from an inherited font.
+     *
+     * @param font the inherited font
+     * @return the derived font, or {@code font} if the style sets no font property
+     */
+    public Font deriveFont(Font font) {
+        if (font == null || !hasFont()) {
+            return font;
+        }
+        float size = !Float.isNaN(fontSize) ? fontSize
+                : !Float.isNaN(fontScale) ? fontScale * font.getSize2D()
+                : font.getSize2D();
+        return HtmlFonts.derive(HtmlFonts.derive(font, fontAttributes), size);
+    }
+
+    public Color foreground() {
+        return foreground;
+    }
+
+    public Color background() {
+        return background;
+    }
+
+    /**
+     * Applies the computed style, on top of inherited text attributes, in one pass.
+     *
+     * @param component the component
+     * @param font the inherited font, or {@code null} to use the component's
+     * @param fg the inherited foreground, or {@code null} to keep the component's
+     * @param bg the inherited background, or {@code null} to keep the component's
+     */
+    public void apply(JComponent component, Font font, Color fg, Color bg) {
+        Font newFont = deriveFont(font != null ? font : component.getFont());
+        if (newFont != null && !newFont.equals(component.getFont())) {
+            component.setFont(newFont);
+        }
+        Color newForeground = foreground != null ? foreground : fg;
+        if (newForeground != null && !newForeground.equals(component.getForeground())) {
+            component.setForeground(newForeground);
+        }
+        Color newBackground = background != null ? background : bg;
+        if (newBackground != null && !newBackground.equals(component.getBackground())) {
+            component.setBackground(newBackground);
+        }
+        if (!Float.isNaN(alignmentX)) {
+            component.setAlignmentX(alignmentX);
+        }
+        if (border != null) {
+            component.setBorder(border);
+        }
+        if (component.getParent() instanceof JScrollPane) {
+            JScrollPane scrollPane = (JScrollPane) component.getParent();
+            if (verticalScrollBarPolicy >= 0) {
+                scrollPane.setVerticalScrollBarPolicy(verticalScrollBarPolicy);
+            }
+            if (horizontalScrollBarPolicy >= 0) {
+                scrollPane.setHorizontalScrollBarPolicy(horizontalScrollBarPolicy);
+            }
+        }
+    }
+}
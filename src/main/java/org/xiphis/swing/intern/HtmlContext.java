@@ -28,20 +28,21 @@ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.steadystate.css.dom.CSSRuleListImpl;
 import com.steadystate.css.dom.CSSStyleSheetImpl;
 import com.steadystate.css.parser.CSSOMParser;
-import com.steadystate.css.parser.SACParserCSS3;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.css.sac.CSSException;
-import org.w3c.css.sac.CSSParseException;
-import org.w3c.css.sac.ErrorHandler;
 import org.w3c.css.sac.InputSource;
 import org.w3c.dom.css.*;
 
@@ -50,27 +51,43 @@ import javax.swing.border.Border;
 import javax.swing.border.EtchedBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.awt.font.TextAttribute;
 import java.io.*;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 public class HtmlContext {
+    // CSSOMParser keeps parse state, so each thread resolving styles gets its own
+    private static final ThreadLocal<CSSOMParser> PARSER = ThreadLocal.withInitial(HtmlStyleSheet::newParser);
+    // elements per task when resolving styles in parallel
+    private static final int PARALLEL_THRESHOLD = 64;
+    // the interval bound values are applied at, about one display frame
+    private static final int FRAME_MILLIS = 16;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private final Document document;
-    private final CSSOMParser parser;
+    private Document document;
+    private final boolean partial;
+    private final HtmlResources resources;
+    private List<HtmlStyleSheet> styleSheets;
     private CSSStyleSheet sheet;
 
     private final Map<String, Object> nameMap = new HashMap<>();
     private final Map<String, Component> idMap = new HashMap<>();
     private final Map<JLabel, String> labelFor = new IdentityHashMap<>();
+    private final Map<Element, HtmlComputedStyle> computedStyles = new IdentityHashMap<>();
+    private final Map<Element, HtmlPanel> panels = new IdentityHashMap<>();
+    // styles resolved by a template, shared read-only
+    private Map<Element, HtmlComputedStyle> templateStyles;
+
+    private boolean paintOnly;
+    private boolean lazy;
+    private int virtualTableRows = Integer.MAX_VALUE;
 
     private Predicate<HtmlEvent> submit = ignore -> true;
     private Predicate<HtmlEvent> reset = ignore -> true;
@@ -81,9 +98,38 @@ public class HtmlContext {
         this(html, false);
     }
     public HtmlContext(String html, boolean partial) {
-        document = partial ? Jsoup.parseBodyFragment(html) : Jsoup.parse(html);
+        this(html, partial, HtmlResources.defaults());
+    }
 
-        StringBuilder sb = new StringBuilder();
+    /**
+     * @param html the document or body fragment
+     * @param partial {@code true} if {@code html} is a body fragment
+     * @param resources resolves the style sheets and images the document refers to
+     */
+    public HtmlContext(String html, boolean partial, HtmlResources resources) {
+        this.resources = Objects.requireNonNull(resources);
+        this.partial = partial;
+        document = parse(html);
+        styleSheets = loadStyleSheets();
+        templateStyles = Collections.emptyMap();
+    }
+
+    /**
+     * Creates a context for a new instance of a compiled template. The document, style
+     * sheets and computed styles are shared with the template, not copied.
+     *
+     * @param template the template
+     */
+    public HtmlContext(HtmlTemplate template) {
+        document = template.document();
+        partial = template.isPartial();
+        resources = template.resources();
+        styleSheets = template.styleSheets();
+        templateStyles = template.computedStyles();
+    }
+
+    private List<HtmlStyleSheet> loadStyleSheets() {
+        List<HtmlStyleSheet> sheets = new ArrayList<>();
 
         for (Element link : document.getElementsByTag("link")) {
             if ("stylesheet".equals(link.attr("rel"))) {
@@ -91,7 +137,7 @@ public class HtmlContext {
                 URL url = forResource(src);
                 if (url != null) {
                     try {
-                        appendStyleSheet(url, sb);
+                        sheets.add(HtmlStyleSheet.forUrl(url));
                     } catch (Exception ex) {
                         log.warn("Failed trying to read from: {}", link.html(), ex);
                     }
@@ -101,72 +147,264 @@ public class HtmlContext {
             }
         }
 
+        // inline styles are private to this document and layered over the shared sheets
+        StringBuilder sb = new StringBuilder();
         for (Element style : document.getElementsByTag("style")) {
-            sb.append(style.wholeText()).append('\n');
+            sb.append(style.data()).append('\n');
         }
-
-        parser = new CSSOMParser(new SACParserCSS3());
-        ErrorHandler errorHandler = new ErrorHandler() {
-            @Override
-            public void warning(CSSParseException e) throws CSSException {
-                log.warn("WARN: {}", e.getLocalizedMessage(), e);
+        if (!sb.toString().isBlank()) {
+            try {
+                sheets.add(HtmlStyleSheet.parse(sb.toString()));
+            } catch (Exception e) {
+                log.warn("Failed to parse style sheet", e);
             }
+        }
+        return Collections.unmodifiableList(sheets);
+    }
 
-            @Override
-            public void error(CSSParseException e) throws CSSException {
-                log.error("ERROR: {}", e.getLocalizedMessage(), e);
-            }
+    /**
+     * Parses html the same way as this context's document was parsed.
+     *
+     * @param html the document or body fragment
+     * @return the parsed document
+     */
+    Document parse(String html) {
+        return partial ? Jsoup.parseBodyFragment(html) : Jsoup.parse(html);
+    }
+
+    boolean isPartial() {
+        return partial;
+    }
 
-            @Override
-            public void fatalError(CSSParseException e) throws CSSException {
-                log.error("FATAL: {}", e.getLocalizedMessage(), e);
+    /**
+     * @return {@code true} if the style of an element may depend on its siblings
+     */
+    boolean dependsOnSiblings() {
+        for (HtmlStyleSheet styleSheet : styleSheets) {
+            if (styleSheet.dependsOnSiblings()) {
+                return true;
             }
-        };
-        parser.setErrorHandler(errorHandler);
-        try {
-            sheet = parser.parseStyleSheet(new InputSource(new StringReader(sb.toString())), null, null);
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the document is shared with a template and must not be modified
+     */
+    boolean isShared() {
+        return !templateStyles.isEmpty();
+    }
 
-            parser.setParentStyleSheet((CSSStyleSheetImpl) sheet);
-        } catch (Exception e) {
-            log.warn("Failed to parse style sheet", e);
+    /**
+     * Replaces the document, reloading its style sheets and dropping everything registered
+     * for the components of the old one. The panels must be rebuilt afterwards.
+     *
+     * @param document the new document
+     */
+    void reload(Document document) {
+        this.document = Objects.requireNonNull(document);
+        styleSheets = loadStyleSheets();
+        sheet = null;
+        templateStyles = Collections.emptyMap();
+        computedStyles.clear();
+        idMap.clear();
+        nameMap.clear();
+        labelFor.clear();
+        panels.clear();
+    }
+
+    /**
+     * Records the panel rendering an element, so that the element can be rendered again.
+     *
+     * @param panel the panel
+     */
+    void register(HtmlPanel panel) {
+        panels.put(panel.body(), panel);
+    }
+
+    /**
+     * Replaces the content of an element and rebuilds the smallest panel showing it. Only
+     * the fragment is parsed; its styles are resolved against the style sheets of the
+     * document. The registrations of the replaced content are dropped, while actions for
+     * names still in use elsewhere keep their values.
+     *
+     * @param id the id of the element
+     * @param html the new content, a body fragment
+     */
+    public void replaceInner(String id, String html) {
+        if (isShared()) {
+            detach();
+        }
+        Element el = document.getElementById(id);
+        if (el == null) {
+            log.warn("No element with id: {}", id);
+            return;
+        }
+        HtmlPanel panel = null;
+        for (Element p = el; panel == null && p != null; p = p.parent()) {
+            panel = panels.get(p);
         }
+        if (panel == null) {
+            log.warn("Element is not rendered: {}", id);
+            return;
+        }
+        forget(el, panel.getComponents());
+        el.html(html);
+        panel.rebuild(panel.body());
+        init();
     }
 
-    URL forResource(String src) {
-        ClassLoader ccl = Thread.currentThread().getContextClassLoader();
-        URL url = null;
-        if (ccl != null) {
-            url = ccl.getResource(src);
+    /**
+     * Takes a private copy of a template's document, which must not be modified, and moves
+     * everything registered for the shared document over to the copy. The components are
+     * kept as they are.
+     */
+    private void detach() {
+        Document copy = document.clone();
+        Map<Node, Node> nodes = new IdentityHashMap<>();
+        Deque<Node[]> pending = new ArrayDeque<>();
+        pending.push(new Node[] { document, copy });
+        while (!pending.isEmpty()) {
+            Node[] pair = pending.pop();
+            nodes.put(pair[0], pair[1]);
+            for (int i = 0; i < pair[0].childNodeSize(); i++) {
+                pending.push(new Node[] { pair[0].childNode(i), pair[1].childNode(i) });
+            }
         }
-        if (url == null) {
-            url = getClass().getResource(src);
+
+        Map<Element, HtmlComputedStyle> styles = new IdentityHashMap<>();
+        templateStyles.forEach((el, style) -> styles.put((Element) nodes.get(el), style));
+        computedStyles.forEach((el, style) -> styles.put((Element) nodes.getOrDefault(el, el), style));
+        computedStyles.clear();
+        computedStyles.putAll(styles);
+        templateStyles = Collections.emptyMap();
+
+        for (Object action : nameMap.values()) {
+            if (action instanceof HtmlAction) {
+                ((HtmlAction) action).remap(nodes);
+            }
         }
-        if (url == null) {
-            url = ClassLoader.getSystemResource(src);
+        List<HtmlPanel> roots = new ArrayList<>();
+        for (HtmlPanel panel : panels.values()) {
+            Element p = panel.body().parent();
+            while (p != null && !panels.containsKey(p)) {
+                p = p.parent();
+            }
+            if (p == null) {
+                roots.add(panel);
+            }
         }
-        return url;
+        panels.clear();
+        for (HtmlPanel root : roots) {
+            remap(root, nodes);
+        }
+        document = copy;
     }
 
-    private void appendStyleSheet(URL url, StringBuilder sb) throws IOException {
-        try (InputStream is = url.openStream();
-             BufferedReader reader = new BufferedReader(new InputStreamReader(is,StandardCharsets.UTF_8))) {
-            for (;;) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
+    // moves the components of a panel over to the copied nodes, re-registering the panels
+    private void remap(Component component, Map<Node, Node> nodes) {
+        if (component instanceof HtmlPanel) {
+            HtmlPanel panel = (HtmlPanel) component;
+            panel.rebind((Element) nodes.get(panel.body()));
+            if (panel.getLayout() instanceof HtmlLayout) {
+                ((HtmlLayout) panel.getLayout()).remap(nodes);
+            }
+            register(panel);
+        } else if (component instanceof HtmlLazyPanel) {
+            HtmlLazyPanel lazy = (HtmlLazyPanel) component;
+            lazy.rebind((Element) nodes.get(lazy.body()));
+        } else if (component instanceof AbstractButton
+                && ((AbstractButton) component).getAction() instanceof HtmlAction.Abstract) {
+            ((HtmlAction.Abstract) ((AbstractButton) component).getAction()).remap(nodes);
+        }
+        if (component instanceof Container) {
+            for (Component child : ((Container) component).getComponents()) {
+                remap(child, nodes);
+            }
+        }
+    }
+
+    /**
+     * Drops everything registered for an element about to be rendered again: the computed
+     * styles of its subtree, the ids and labels of the components being discarded, and the
+     * actions of names no other element uses.
+     *
+     * @param el the element
+     * @param discarded the components rendered for it
+     */
+    void forget(Element el, Component... discarded) {
+        Elements subtree = el.getAllElements();
+        Set<String> names = new HashSet<>();
+        for (Element child : subtree) {
+            computedStyles.remove(child);
+            panels.remove(child);
+            if (child.hasAttr("name")) {
+                names.add(child.attr("name"));
+            }
+        }
+        idMap.values().removeIf(c -> isDescendingFrom(c, discarded));
+        labelFor.keySet().removeIf(c -> isDescendingFrom(c, discarded));
+        if (!names.isEmpty()) {
+            Set<Element> inside = Collections.newSetFromMap(new IdentityHashMap<>());
+            inside.addAll(subtree);
+            for (Element other : document.select("[name]")) {
+                if (!inside.contains(other)) {
+                    names.remove(other.attr("name"));
                 }
-                sb.append(line).append('\n');
             }
+            nameMap.keySet().removeAll(names);
         }
     }
 
+    private static boolean isDescendingFrom(Component c, Component[] ancestors) {
+        for (Component ancestor : ancestors) {
+            if (SwingUtilities.isDescendingFrom(c, ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    URL forResource(String src) {
+        return resources.find(src);
+    }
+
+    public HtmlResources resources() {
+        return resources;
+    }
+
+    /**
+     * @return the style sheets applied to this document, in cascade order
+     */
+    public List<HtmlStyleSheet> styleSheets() {
+        return styleSheets;
+    }
+
+    /**
+     * Returns all rules of {@link #styleSheets()} as a single style sheet. The shared
+     * sheets are not copied; the combined view only references their rules.
+     *
+     * @return the combined style sheet
+     */
     public CSSStyleSheet stylesheet() {
+        if (sheet == null) {
+            CSSStyleSheetImpl combined = new CSSStyleSheetImpl();
+            CSSRuleListImpl rules = new CSSRuleListImpl();
+            for (HtmlStyleSheet styleSheet : styleSheets) {
+                CSSRuleList cssRules = styleSheet.cssStyleSheet().getCssRules();
+                for (int i = 0; i < cssRules.getLength(); i++) {
+                    rules.add(cssRules.item(i));
+                }
+            }
+            combined.setCssRules(rules);
+            sheet = combined;
+        }
         return sheet;
     }
 
     public CSSStyleDeclaration style(String declaration) {
         try {
-            return parser.parseStyleDeclaration(new InputSource(new StringReader(declaration)));
+            return PARSER.get().parseStyleDeclaration(new InputSource(new StringReader(declaration)));
         } catch (IOException e) {
             log.warn("Failed to parse style declaration: {}", declaration, e);
             return null;
@@ -176,435 +414,141 @@ public class HtmlContext {
     public Document document() {
         return document;
     }
-    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
-
-    private boolean checkAttribute(Element el, String attribute) {
-        switch (attribute) {
-            case "":
-                return true;
-            case "empty":
-                return el.childNodeSize() == 0;
-            case "first-child":
-                return el.previousElementSibling() == null;
-            case "last-child":
-                return el.nextElementSibling() == null;
-            case "only-child":
-                return el.previousElementSibling() == null && el.nextElementSibling() == null;
-            default:
-                if (attribute.startsWith("not(") && attribute.endsWith(")")) {
-                    return checkRule0(el, attribute.substring(4, attribute.length() - 1));
-                }
-                if (attribute.startsWith("nth-child(") && attribute.endsWith(")")) {
-                    return el.parent().children().indexOf(el) == Integer.parseUnsignedInt(attribute.substring(10, attribute.length() - 1)) - 1;
-                }
-                if (attribute.startsWith("nth-last-child(") && attribute.endsWith(")")) {
-                    return el.parent().children().indexOf(el) == el.parent().childrenSize() - Integer.parseUnsignedInt(attribute.substring(15, attribute.length() - 1));
-                }
+    /**
+     * Resolves the style of an element: all matching rules ordered by specificity and then
+     * source order, followed by its {@code style} attribute, folded into the final value of
+     * each property. The result is cached, so every component rendered for the same element
+     * shares it.
+     *
+     * @param el the element
+     * @return the computed style
+     */
+    public HtmlComputedStyle computedStyle(Element el) {
+        HtmlComputedStyle style = templateStyles.get(el);
+        if (style == null) {
+            style = computedStyles.get(el);
         }
-        return false;
+        if (style == null) {
+            style = HtmlComputedStyle.of(resolveStyle(el, HtmlSiblings.LIVE));
+            computedStyles.put(el, style);
+        }
+        return style;
     }
 
-    private boolean checkRule0(Element el, String selector) {
-        for (String sel : selector.split(",")) {
-            String attr = "";
-            int pos = sel.indexOf(':');
-            if (pos == 0) {
-                attr = sel;
-                sel = "";
-            } else if (pos > 0) {
-                attr = sel.substring(pos);
-                sel = sel.substring(0, pos);
-            }
-
-            if ("*".equals(sel)) {
-                if (checkAttribute(el, attr)) {
-                    return true;
-                }
-                continue;
-            }
-
-            if (sel.startsWith("#")) {
-                if (el.hasAttr("id")) {
-                    if (sel.substring(1).equals(el.attr("id"))) {
-                        if (checkAttribute(el, attr)) {
-                            return true;
-                        }
-                        continue;
-                    }
-                }
-            }
-
-            if (sel.startsWith(".")) {
-                if (el.hasAttr("class")) {
-                    List<String> classes = Arrays.asList(WHITESPACE.split(el.attr("class")));
-                    List<String> test = Arrays.asList(selector.split("\\."));
-                    if (classes.containsAll(test)) {
-                        if (checkAttribute(el, attr)) {
-                            return true;
-                        }
-                    }
-                }
-            }
-
-            if (sel.equals(el.tagName())) {
-                if (checkAttribute(el, attr)) {
-                    return true;
-                }
-                continue;
+    /**
+     * Resolves the style of every element of the document in parallel, so that building the
+     * components afterwards only looks them up. The document is split into runs of elements in
+     * document order, which are matched against the style sheets on {@code pool}.
+     *
+     * @param pool the pool to resolve styles on
+     */
+    public void prepareStyles(ForkJoinPool pool) {
+        Elements all = document.getAllElements();
+        // jsoup's cached child lists are rebuilt on demand and not safe to share between threads
+        HtmlSiblings siblings = HtmlSiblings.snapshot(all);
+        List<Element> pending = new ArrayList<>(all.size());
+        for (Element el : all) {
+            if (!templateStyles.containsKey(el) && !computedStyles.containsKey(el)) {
+                pending.add(el);
             }
-
-            if (sel.startsWith(el.tagName()) && sel.length() > el.tagName().length()
-                    && sel.charAt(el.tagName().length()) == '.') {
-                if (checkRule0(el, sel.substring(el.tagName().length()))) {
-                    if (checkAttribute(el, attr)) {
-                        return true;
-                    }
-                    continue;
-                }
-            }
-
-            if (sel.endsWith(el.tagName())) {
-                pos = sel.length() - el.tagName().length() - 1;
-                char ch = sel.charAt(pos);
-                boolean match = false;
-                if (ch == '>') {
-                    if (checkRule0(el.parent(), sel.substring(0, pos))) {
-                        match = true;
-                    }
-                } else if (ch == '+') {
-                    if (el.previousElementSibling() == null && checkRule0(el.parent(), sel.substring(0, pos))) {
-                        match = true;
-                    } else if (el.previousElementSibling() != null && checkRule0(el.previousElementSibling(), sel.substring(0, pos))) {
-                        match = true;
-                    }
-                } else if (ch == '~') {
-                    if (checkRule0(el.previousElementSibling(), sel.substring(0, pos))) {
-                        match = true;
-                    }
-                }
-                if (match) {
-                    if (checkAttribute(el, attr)) {
-                        return true;
-                    }
-                    continue;
-                }
-            }
-            log.debug("no match");
         }
-        return false;
+        HtmlComputedStyle[] resolved = new HtmlComputedStyle[pending.size()];
+        pool.invoke(new ResolveStyles(pending, siblings, resolved, 0, resolved.length));
+        for (int i = 0; i < resolved.length; i++) {
+            computedStyles.put(pending.get(i), resolved[i]);
+        }
     }
 
-    private boolean checkRule(Element el, CSSStyleRule styleRule) {
-        String selectorString = styleRule.getSelectorText();
-        selectorString = selectorString.replaceAll("\\s*,\\s*", ",");
-        selectorString = selectorString.replaceAll("\\s*>\\s*", ">");
-        selectorString = selectorString.replaceAll("\\s*\\+\\s*", "+");
-        selectorString = selectorString.replaceAll("\\s*~\\s*", "~");
+    private final class ResolveStyles extends RecursiveAction {
+        private final List<Element> elements;
+        private final HtmlSiblings siblings;
+        private final HtmlComputedStyle[] resolved;
+        private final int from;
+        private final int to;
+
+        ResolveStyles(List<Element> elements, HtmlSiblings siblings, HtmlComputedStyle[] resolved, int from, int to) {
+            this.elements = elements;
+            this.siblings = siblings;
+            this.resolved = resolved;
+            this.from = from;
+            this.to = to;
+        }
 
-        String[] selector = WHITESPACE.split(selectorString);
-        for (int i = selector.length - 1; i >= 0;) {
-            if (checkRule0(el, selector[i])) {
-                i--;
-                el = el.parent();
-                continue;
-            }
-            if (i == selector.length - 1) {
-                return false;
-            }
-            el = el.parent();
-            if (el == null) {
-                return false;
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    resolved[i] = HtmlComputedStyle.of(resolveStyle(elements.get(i), siblings));
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ResolveStyles(elements, siblings, resolved, from, mid),
+                        new ResolveStyles(elements, siblings, resolved, mid, to));
             }
         }
-        return true;
     }
 
-    public void applyStyle(JComponent component, Node n) {
-        if (n instanceof Element) {
-            if (n.hasAttr("id")) {
-                idMap.putIfAbsent(n.attr("id"), component);
-            }
-            if (component instanceof JLabel && n.hasAttr("for")) {
-                labelFor.put((JLabel) component, n.attr("for"));
+    private List<HtmlStyle> resolveStyle(Element el, HtmlSiblings siblings) {
+        List<HtmlStyle> styles = new ArrayList<>();
+        if (!styleSheets.isEmpty()) {
+            List<HtmlRule> matched = new ArrayList<>();
+            for (HtmlStyleSheet styleSheet : styleSheets) {
+                styleSheet.match(el, matched, siblings);
             }
-        }
-        while (!(n instanceof Element)) {
-            n = n.parentNode();
-        }
-        Element el = (Element) n;
-        CSSRuleList cssRules = stylesheet().getCssRules();
-        List<CSSStyleDeclaration> styleDeclarations = null;
-        for (int i = 0; i < cssRules.getLength(); i++) {
-            CSSRule rule = cssRules.item(i);
-            switch (rule.getType()) {
-                case CSSRule.STYLE_RULE: {
-                    CSSStyleRule styleRule = (CSSStyleRule) rule;
-                    if (checkRule(el, styleRule)) {
-                        if (styleDeclarations == null) {
-                            styleDeclarations = new LinkedList<>();
-                        }
-                        styleDeclarations.add(styleRule.getStyle());
-                    }
-                    break;
+            // stable, so sheet and source order are kept among equal specificities
+            matched.sort(Comparator.comparingInt(rule -> rule.selector().specificity()));
+            // selectors of one group share a declaration block, apply it once at its highest position
+            Set<HtmlStyle> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = matched.size() - 1; i >= 0; i--) {
+                HtmlStyle style = matched.get(i).style();
+                if (!style.isEmpty() && seen.add(style)) {
+                    styles.add(style);
                 }
-                default:
-                    break;
             }
+            Collections.reverse(styles);
         }
         if (el.hasAttr("style")) {
-            CSSStyleDeclaration declaration = style(el.attr("style"));
-            if (styleDeclarations == null) {
-                styleDeclarations = Collections.singletonList(declaration);
-            } else {
-                styleDeclarations.add(declaration);
-            }
+            styles.add(HtmlStyle.of(style(el.attr("style"))));
         }
         if (el.hasAttr("align")) {
             switch (el.attr("align")) {
                 case "left":
                 case "right":
                 case "center":
-                    CSSStyleDeclaration declaration = style("float:" + el.attr("align"));
-                    if (styleDeclarations == null) {
-                        styleDeclarations = Collections.singletonList(declaration);
-                    } else {
-                        styleDeclarations.add(declaration);
-                    }
+                    styles.add(HtmlStyle.of(style("float:" + el.attr("align"))));
                 default:
             }
-
         }
+        return styles;
+    }
 
-        if (styleDeclarations == null) {
-            return;
-        }
+    public void applyStyle(JComponent component, Node n) {
+        applyStyle(component, n, null, null, null);
+    }
 
-        for (CSSStyleDeclaration style : styleDeclarations) {
-            for (int i = 0; i < style.getLength(); i++) {
-                String property = style.item(i);
-                switch (property) {
-                    case "float":
-                        switch (style.getPropertyValue(property)) {
-                            case "left":
-                                component.setAlignmentX(JComponent.LEFT_ALIGNMENT);
-                                continue;
-                            case "center":
-                                component.setAlignmentX(JComponent.CENTER_ALIGNMENT);
-                                continue;
-                            case "right":
-                                component.setAlignmentX(JComponent.RIGHT_ALIGNMENT);
-                                continue;
-                            default:
-                                log.info("unknown alignment: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                                continue;
-                        }
-                    case "overflow":
-                        if (component.getParent() instanceof JScrollPane) {
-                            JScrollPane scrollPane = (JScrollPane) component.getParent();
-                            switch (style.getPropertyValue(property)) {
-                                case "hidden":
-                                    scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
-                                    scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-                                    continue;
-                                case "scroll":
-                                    scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
-                                    scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_ALWAYS);
-                                    continue;
-                                case "auto":
-                                    scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
-                                    scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-                                    continue;
-                                default:
-                                    break;
-                            }
-                            log.info("unknown overflow: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                            continue;
-                        }
-                    case "overflow-x":
-                        if (component.getParent() instanceof JScrollPane) {
-                            JScrollPane scrollPane = (JScrollPane) component.getParent();
-                            switch (style.getPropertyValue(property)) {
-                                case "hidden":
-                                    scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-                                    continue;
-                                case "scroll":
-                                    scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_ALWAYS);
-                                    continue;
-                                case "auto":
-                                    scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-                                    continue;
-                                default:
-                                    break;
-                            }
-                            log.info("unknown overflow-x: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                            continue;
-                        }
-                    case "overflow-y":
-                        if (component.getParent() instanceof JScrollPane) {
-                            JScrollPane scrollPane = (JScrollPane) component.getParent();
-                            switch (style.getPropertyValue(property)) {
-                                case "hidden":
-                                    scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
-                                    continue;
-                                case "scroll":
-                                    scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
-                                    continue;
-                                case "auto":
-                                    scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
-                                    continue;
-                                default:
-                                    break;
-                            }
-                            log.info("unknown overflow-y: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                            continue;
-                        }
-                    case "margin":
-                        if (component instanceof HtmlPanel) {
-                            log.debug("margin: {}", style.getPropertyValue(property));
-                        }
-                        continue;
-                    case "padding":
-                        if (component instanceof HtmlPanel) {
-                            log.info("padding: {}", style.getPropertyValue(property));
-                        }
-                        continue;
-                    case "border":
-                        if ("0".equals(style.getPropertyValue(property))) {
-                            component.setBorder(BorderFactory.createEmptyBorder());
-                            continue;
-                        }
-                        log.info("border: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                        continue;
-                    case "outline":
-                        log.debug("not supported: {}", property);
-                        continue;
-                    case "line-height":
-                        log.debug("not supported: {}", property);
-                        continue;
-                    case "vertical-align":
-                        switch (style.getPropertyValue(property)) {
-                            case "baseline":
-                                continue;
-                            default:
-                                log.debug("vertical-align mot supported: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                                continue;
-                        }
-                    case "background":
-                        if ("transparent".equals(style.getPropertyValue(property))) {
-                            continue;
-                        }
-                        log.info("unhandled background: {} {} {}", el.tagName(), component.getClass().getSimpleName(), style.getPropertyValue(property));
-                        continue;
-                    case "background-color":
-                        Optional.ofNullable(HtmlColor.getColor(style.getPropertyValue(property)))
-                                .ifPresent(component::setBackground);
-                        continue;
-                    case "color":
-                        Optional.ofNullable(HtmlColor.getColor(style.getPropertyValue(property)))
-                                .ifPresent(component::setForeground);
-                        continue;
-                    case "font-family":
-                        for (String family : style.getPropertyValue(property).split(",")) {
-                            Font font = component.getFont().deriveFont(Collections.singletonMap(TextAttribute.FAMILY, family));
-                            if (family.equals(font.getFamily())) {
-                                component.setFont(font);
-                                break;
-                            }
-                        }
-                        continue;
-                    case "font-size":
-                        try {
-                            String size = style.getPropertyValue(property);
-                            if (size.endsWith("%")) {
-                                float scale = Float.parseFloat(size.substring(0, size.length() - 1)) / 100f;
-                                Font font = component.getFont();
-                                component.setFont(font.deriveFont(scale * font.getSize2D()));
-                                continue;
-                            }
-                            if (size.endsWith("px")) {
-                                float px = Float.parseFloat(size.substring(0, size.length() - 2));
-                                float pt = 72f * px / component.getToolkit().getScreenResolution();
-                                component.setFont(component.getFont().deriveFont(pt));
-                                continue;
-                            }
-                            if (size.endsWith("em")) {
-                                float em = Float.parseFloat(size.substring(0, size.length() - 2));
-                                float px = em * 16f;
-                                float pt = 72f * px / component.getToolkit().getScreenResolution();
-                                component.setFont(component.getFont().deriveFont(pt));
-                                continue;
-                            }
-                            if (size.endsWith("pt")) {
-                                size = size.substring(0, size.length() - 2);
-                            }
-                            component.setFont(component.getFont().deriveFont(Float.parseFloat(size)));
-                        } catch (Exception ex) {
-                            log.warn("Unable to parse font-size: {}", style.getPropertyValue(property), ex);
-                        }
-                        continue;
-
-                    case "font-style":
-                        switch (style.getPropertyValue(property)) {
-                            case "normal":
-                                component.setFont(component.getFont().deriveFont(
-                                        Collections.singletonMap(TextAttribute.POSTURE, TextAttribute.POSTURE_REGULAR)));
-                                continue;
-                            case "italic":
-                            case "oblique":
-                                component.setFont(component.getFont().deriveFont(
-                                        Collections.singletonMap(TextAttribute.POSTURE, TextAttribute.POSTURE_OBLIQUE)));
-                                continue;
-                            default:
-                                try {
-                                    float posture = Float.parseFloat(style.getPropertyValue(property));
-                                    component.setFont(component.getFont().deriveFont(
-                                            Collections.singletonMap(TextAttribute.POSTURE, posture)));
-                                } catch (Exception ex) {
-                                    log.warn("unknown font-style: {}", style.getPropertyValue(property));
-                                }
-                        }
-                        continue;
-                    case "font-weight":
-                        switch (style.getPropertyValue(property)) {
-                            case "normal":
-                                component.setFont(component.getFont().deriveFont(
-                                        Collections.singletonMap(TextAttribute.WEIGHT, TextAttribute.WEIGHT_REGULAR)));
-                                continue;
-                            case "bold":
-                                component.setFont(component.getFont().deriveFont(
-                                        Collections.singletonMap(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD)));
-                                continue;
-                            case "bolder":
-                                component.setFont(component.getFont().deriveFont(
-                                        Collections.singletonMap(TextAttribute.WEIGHT, TextAttribute.WEIGHT_EXTRABOLD)));
-                                continue;
-                            default:
-                                try {
-                                    float weight = Float.parseFloat(style.getPropertyValue(property));
-                                    component.setFont(component.getFont().deriveFont(
-                                            Collections.singletonMap(TextAttribute.WEIGHT, weight)));
-                                } catch (Exception ex) {
-                                    log.warn("unknown font-weight: {}", style.getPropertyValue(property));
-                                }
-                                continue;
-                        }
-                    case "text-decoration":
-                        switch (style.getPropertyValue(property)) {
-                            case "line-through":
-                                component.setFont(component.getFont().deriveFont(
-                                        Collections.singletonMap(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON)));
-                                continue;
-                            default:
-                                log.warn("unknown text-decoration: {}", style.getPropertyValue(property));
-                                continue;
-                        }
-                    default:
-                        log.warn("unknown style attribute: {} {} {} {}",
-                                el.tagName(), component.getClass().getSimpleName(), property,
-                                style.getPropertyValue(property));
-                }
+    /**
+     * Registers the component for its element and applies the element's computed style on
+     * top of the inherited font and colours, setting each component property at most once.
+     *
+     * @param component the component
+     * @param n the node the component was rendered for
+     * @param font the inherited font, or {@code null} to use the component's
+     * @param fg the inherited foreground, or {@code null}
+     * @param bg the inherited background, or {@code null}
+     */
+    void applyStyle(JComponent component, Node n, Font font, Color fg, Color bg) {
+        if (n instanceof Element) {
+            if (n.hasAttr("id")) {
+                idMap.putIfAbsent(n.attr("id"), component);
+            }
+            if (component instanceof JLabel && n.hasAttr("for")) {
+                labelFor.put((JLabel) component, n.attr("for"));
             }
         }
+        while (!(n instanceof Element)) {
+            n = n.parentNode();
+        }
+        computedStyle((Element) n).apply(component, font, fg, bg);
     }
 
     public Border parseBorder(String style, Border border) {
@@ -684,6 +628,34 @@ public class HtmlContext {
         return new HtmlAction(this, "");
     }
 
+    /**
+     * @param name the name of a field
+     * @return the action holding the field's value, or {@code null} if there is none
+     */
+    HtmlAction action(String name) {
+        Object action = nameMap.get(name);
+        return action instanceof HtmlAction ? (HtmlAction) action : null;
+    }
+
+    /**
+     * Creates a binding that applies values pushed from any thread to this document's
+     * fields, at most once per frame of about 60 Hz.
+     *
+     * @return the binding
+     */
+    public HtmlBinding newBinding() {
+        return newBinding(FRAME_MILLIS);
+    }
+
+    /**
+     * @param frameMillis the interval at which pending values are applied
+     * @return the binding
+     * @see #newBinding()
+     */
+    public HtmlBinding newBinding(int frameMillis) {
+        return new HtmlBinding(this, frameMillis);
+    }
+
     public void actionPerformed(HtmlAction htmlAction, ActionEvent e) {
         Component comp = (Component) e.getSource();
         Element element = htmlAction.element(comp);
@@ -740,6 +712,58 @@ public class HtmlContext {
         }
     }
 
+    /**
+     * Selects paint-only rendering for panels created after this call. Text, images,
+     * rules and line breaks are then laid out and painted by their panel instead of
+     * becoming components; form controls, links and tables remain components. Content
+     * rendered this way has no tooltips and cannot be looked up by id.
+     *
+     * @param paintOnly {@code true} to paint static content directly
+     */
+    public void setPaintOnly(boolean paintOnly) {
+        this.paintOnly = paintOnly;
+    }
+
+    public boolean isPaintOnly() {
+        return paintOnly;
+    }
+
+    /**
+     * Selects lazy building for panels created after this call. Sections, articles and the
+     * other parts of a page, list items, definitions and nested tables are then represented
+     * by a placeholder of estimated size and only built when first painted, that is when
+     * they scroll into view. Subtrees holding form controls or elements with an id, name or
+     * {@code for} attribute are always built immediately, so lookups and values are
+     * unaffected.
+     *
+     * @param lazy {@code true} to defer building off-screen subtrees
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets the number of rows from which tables created after this call are rendered as a
+     * single virtual component, which paints the cells of the visible rows only, instead of a
+     * panel per cell. Cells are then shown as text in the style of their element, so only
+     * tables whose cells hold plain text and have no id, name or {@code for} attribute are
+     * rendered this way; any other table gets a panel per cell. Tables are never virtualized
+     * unless this is set.
+     *
+     * @param rows the number of rows, {@link Integer#MAX_VALUE} to never virtualize
+     */
+    public void setVirtualTableRows(int rows) {
+        this.virtualTableRows = rows;
+    }
+
+    public int getVirtualTableRows() {
+        return virtualTableRows;
+    }
+
     public void onSubmit(Predicate<HtmlEvent> submitAction) {
         submit = submit.and(submitAction);
     }
@@ -775,20 +799,135 @@ public class HtmlContext {
         return (T) idMap.get(id);
     }
 
+    /**
+     * Sets the fields named by the keys of a JSON object. Fields without a key are left as
+     * they are, as are keys without a field.
+     *
+     * @param jsonObject the values
+     */
     public void setValues(JsonObject jsonObject) {
-        nameMap.forEach((name, val) -> {
-           if (val instanceof Action) {
-               Action action = (Action) val;
-               JsonPrimitive value = jsonObject.getAsJsonPrimitive(name);
-               if (value.isBoolean()) {
-                   action.putValue(Action.SELECTED_KEY, value.getAsBoolean());
-               } else if (value.isNumber()) {
-                   action.putValue(Action.SELECTED_KEY, value.getAsNumber());
-               } else if (value.isString()) {
-                   action.putValue(Action.SELECTED_KEY, value.getAsString());
-               }
-           }
-        });
+        for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+            HtmlAction action = action(entry.getKey());
+            JsonElement value = entry.getValue();
+            if (action == null || !(value.isJsonPrimitive() || value.isJsonNull())) {
+                continue;
+            }
+            if (value.isJsonNull()) {
+                action.putValue(Action.SELECTED_KEY, null);
+            } else if (value.getAsJsonPrimitive().isBoolean()) {
+                action.putValue(Action.SELECTED_KEY, value.getAsBoolean());
+            } else if (value.getAsJsonPrimitive().isNumber()) {
+                action.putValue(Action.SELECTED_KEY, value.getAsNumber());
+            } else {
+                action.putValue(Action.SELECTED_KEY, value.getAsString());
+            }
+            action.clean();
+        }
+    }
+
+    /**
+     * Sets the fields named by the keys of the JSON object read from {@code reader}, without
+     * building a tree. Only the fields present are set; keys without a field are skipped.
+     *
+     * @param reader positioned before a JSON object
+     * @throws IOException if the JSON cannot be read
+     */
+    public void setValues(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            HtmlAction action = action(reader.nextName());
+            JsonToken token = reader.peek();
+            Object value;
+            switch (token) {
+                case BOOLEAN:
+                    value = reader.nextBoolean();
+                    break;
+                case NUMBER:
+                    value = number(reader.nextString());
+                    break;
+                case STRING:
+                    value = reader.nextString();
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    value = null;
+                    break;
+                default:
+                    reader.skipValue();
+                    continue;
+            }
+            if (action != null) {
+                action.putValue(Action.SELECTED_KEY, value);
+                action.clean();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static Number number(String s) {
+        try {
+            long l = Long.parseLong(s);
+            if (l == (int) l) {
+                return (int) l;
+            }
+            return l;
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(s);
+        }
+    }
+
+    /**
+     * Writes the fields as a JSON object to {@code writer}, without building a tree. The
+     * fields written are marked clean, so that writing only changed fields afterwards sends
+     * what changed since. Values other than booleans, numbers and strings, such as those
+     * parsed by a {@link TextAreaParser}, are written as strings.
+     *
+     * @param writer the writer
+     * @param changedOnly {@code true} to write only the fields changed since they were last
+     *                    written or set from JSON; a field changed to {@code null} is
+     *                    written as {@code null}, while writing all fields leaves it out
+     *                    and so still changed
+     * @throws IOException if writing fails
+     */
+    public void writeJson(JsonWriter writer, boolean changedOnly) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, Object> entry : nameMap.entrySet()) {
+            if (!(entry.getValue() instanceof HtmlAction)) {
+                continue;
+            }
+            HtmlAction action = (HtmlAction) entry.getValue();
+            if (changedOnly && !action.isDirty()) {
+                continue;
+            }
+            Object value = action.getValue(Action.SELECTED_KEY);
+            if (value instanceof Boolean) {
+                writer.name(entry.getKey()).value((Boolean) value);
+            } else if (value instanceof Number) {
+                writer.name(entry.getKey()).value((Number) value);
+            } else if (value instanceof String) {
+                writer.name(entry.getKey()).value((String) value);
+            } else if (value != null) {
+                writer.name(entry.getKey()).value(value.toString());
+            } else if (changedOnly) {
+                writer.name(entry.getKey()).nullValue();
+            } else {
+                continue;
+            }
+            action.clean();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * @param writer the writer
+     * @param changedOnly {@code true} to write only the fields changed since last written
+     * @throws IOException if writing fails
+     * @see #writeJson(JsonWriter, boolean)
+     */
+    public void writeJson(Writer writer, boolean changedOnly) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        writeJson(jsonWriter, changedOnly);
+        jsonWriter.flush();
     }
 
     public JsonObject toJson() {
@@ -29,10 +29,12 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import org.jsoup.nodes.Element;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
 import java.util.EventObject;
 
 public class HtmlEvent {
@@ -80,6 +82,18 @@ public class HtmlEvent {
         return null;
     }
 
+    /**
+     * Writes the state of the form without building a tree.
+     *
+     * @param writer the writer
+     * @param changedOnly {@code true} to write only the fields changed since last written
+     * @throws IOException if writing fails
+     * @see HtmlContext#writeJson(JsonWriter, boolean)
+     */
+    public void writeState(JsonWriter writer, boolean changedOnly) throws IOException {
+        ((HtmlAction) action).context().writeJson(writer, changedOnly);
+    }
+
     public void setState(JsonObject state) {
         ((HtmlAction) action).context().setValues(state);
     }
@@ -0,0 +1,152 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.awt.*;
+import java.text.AttributedCharacterIterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of derived fonts.
+ * <p>
+ * {@link Font#deriveFont} returns a new instance on every call, each with its own glyph and
+ * metrics caches. Deriving through here returns the same instance for the same base font and
+ * derivation, and equal fonts reached by different derivations are interned to one instance.
+ */
+public final class HtmlFonts {
+
+    private static final int MAX_SIZE = 1024;
+
+    private static final Map<Key, Font> DERIVED = lruMap();
+    private static final Map<Font, Font> INTERNED = lruMap();
+
+    private HtmlFonts() {
+    }
+
+    /**
+     * @param base the font to derive from
+     * @param attributes the attributes to apply
+     * @return the shared derived font
+     */
+    public static Font derive(Font base, Map<? extends AttributedCharacterIterator.Attribute, ?> attributes) {
+        if (attributes.isEmpty()) {
+            return base;
+        }
+        return derive(new Key(base, attributes));
+    }
+
+    /**
+     * @param base the font to derive from
+     * @param size the point size of the new font
+     * @return the shared derived font
+     */
+    public static Font derive(Font base, float size) {
+        if (base.getSize2D() == size) {
+            return base;
+        }
+        return derive(new Key(base, size));
+    }
+
+    /**
+     * @param font a font
+     * @return the shared instance equal to {@code font}
+     */
+    public static Font intern(Font font) {
+        synchronized (INTERNED) {
+            Font interned = INTERNED.putIfAbsent(font, font);
+            return interned != null ? interned : font;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Font derive(Key key) {
+        Font font;
+        synchronized (DERIVED) {
+            font = DERIVED.get(key);
+        }
+        if (font == null) {
+            // derived outside the lock; a racing thread derives an equal font and interning picks one
+            font = intern(key.derivation instanceof Float
+                    ? key.base.deriveFont((Float) key.derivation)
+                    : key.base.deriveFont((Map<? extends AttributedCharacterIterator.Attribute, ?>) key.derivation));
+            synchronized (DERIVED) {
+                DERIVED.put(key.copy(), font);
+            }
+        }
+        return font;
+    }
+
+    private static <K, V> Map<K, V> lruMap() {
+        return new LinkedHashMap<K, V>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+    }
+
+    private static final class Key {
+        final Font base;
+        // a Float size or an attribute map
+        final Object derivation;
+        final int hash;
+
+        Key(Font base, Object derivation) {
+            this.base = base;
+            this.derivation = derivation;
+            this.hash = 31 * base.hashCode() + derivation.hashCode();
+        }
+
+        /**
+         * @return a key that does not share a possibly mutable attribute map with the caller
+         */
+        Key copy() {
+            return derivation instanceof Map ? new Key(base, new HashMap<>((Map<?, ?>) derivation)) : this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && base.equals(key.base) && derivation.equals(key.derivation);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
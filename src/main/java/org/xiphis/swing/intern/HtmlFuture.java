@@ -0,0 +1,127 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A window or panel being prepared in the background.
+ * <p>
+ * The document is parsed and styled on an executor thread; only the components are created
+ * on the event dispatch thread. Handlers may be registered at any time: those registered
+ * before the future completes are installed before the components are created, later ones
+ * are installed on the event dispatch thread.
+ *
+ * @param <T> the prepared window or panel
+ */
+public final class HtmlFuture<T extends HtmlIface> extends CompletableFuture<T> {
+
+    private final List<Consumer<HtmlContext>> pending = new ArrayList<>();
+    private HtmlContext context;
+
+    private HtmlFuture() {
+    }
+
+    /**
+     * Prepares a template on {@code executor} and then creates its components on the
+     * event dispatch thread.
+     *
+     * @param template prepares the template; runs on {@code executor}
+     * @param create creates the components for a context; runs on the event dispatch thread
+     * @param executor the executor for the document work
+     * @param <T> the prepared window or panel
+     * @return the future
+     */
+    public static <T extends HtmlIface> HtmlFuture<T> prepare(Supplier<HtmlTemplate> template,
+                                                              Function<HtmlContext, T> create,
+                                                              Executor executor) {
+        HtmlFuture<T> future = new HtmlFuture<>();
+        CompletableFuture.supplyAsync(() -> template.get().newContext(), executor)
+                .thenAcceptAsync(context -> {
+                    try {
+                        future.attach(context);
+                        future.complete(create.apply(context));
+                    } catch (Throwable ex) {
+                        future.completeExceptionally(ex);
+                    }
+                }, SwingUtilities::invokeLater)
+                .exceptionally(ex -> {
+                    future.completeExceptionally(ex);
+                    return null;
+                });
+        return future;
+    }
+
+    public HtmlFuture<T> onSubmit(Predicate<HtmlEvent> handler) {
+        return register(context -> context.onSubmit(handler));
+    }
+
+    public HtmlFuture<T> onClicked(String id, Consumer<HtmlEvent> handler) {
+        return register(context -> context.onClicked(id, handler));
+    }
+
+    public HtmlFuture<T> onReset(Predicate<HtmlEvent> handler) {
+        return register(context -> context.onReset(handler));
+    }
+
+    private HtmlFuture<T> register(Consumer<HtmlContext> registration) {
+        HtmlContext ready;
+        synchronized (pending) {
+            if (context == null) {
+                pending.add(registration);
+                return this;
+            }
+            ready = context;
+        }
+        if (SwingUtilities.isEventDispatchThread()) {
+            registration.accept(ready);
+        } else {
+            SwingUtilities.invokeLater(() -> registration.accept(ready));
+        }
+        return this;
+    }
+
+    private void attach(HtmlContext context) {
+        List<Consumer<HtmlContext>> registrations;
+        synchronized (pending) {
+            this.context = context;
+            registrations = new ArrayList<>(pending);
+            pending.clear();
+        }
+        registrations.forEach(registration -> registration.accept(context));
+    }
+}
@@ -1,8 +1,11 @@
 package org.xiphis.swing.intern;
 
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.Writer;
 
 public interface HtmlIface {
 
@@ -19,4 +22,12 @@ public interface HtmlIface {
         return context().toJson();
     }
 
+    default void setValues(JsonReader reader) throws IOException {
+        context().setValues(reader);
+    }
+
+    default void writeJson(Writer writer, boolean changedOnly) throws IOException {
+        context().writeJson(writer, changedOnly);
+    }
+
 }
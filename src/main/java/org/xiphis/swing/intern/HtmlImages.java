@@ -0,0 +1,374 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared, thread-safe image loader.
+ * <p>
+ * Images are decoded in the background with {@link ImageIO}, subsampled while reading to
+ * about the size they are shown at and then scaled to it exactly. Decoded images are kept in
+ * a bounded cache of soft references keyed by URL and size, so panels showing the same image
+ * share it. The icons returned know their size before the image is decoded; they paint a
+ * placeholder until then and repaint only themselves when it arrives.
+ */
+public final class HtmlImages {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlImages.class);
+
+    private static final int MAX_SIZE = 256;
+    private static final Color PLACEHOLDER = new Color(0x80808080, true);
+    // the size of an image whose header has not been read yet
+    private static final int UNKNOWN_SIZE = 16;
+
+    private static final Map<Key, SoftReference<BufferedImage>> IMAGES = lruMap();
+    private static final Map<String, Dimension> SIZES = lruMap();
+    private static final Map<Key, CompletableFuture<BufferedImage>> PENDING = new HashMap<>();
+
+    private static final ExecutorService DECODER = Executors.newFixedThreadPool(2, new ThreadFactory());
+
+    private HtmlImages() {
+    }
+
+    /**
+     * Returns an icon for an image. If only one of {@code width} and {@code height} is given,
+     * the other follows from the aspect ratio of the image. If the size of the image is needed
+     * and not known yet, its header is read in the background too; until then the icon has a
+     * placeholder size, and the components showing it are revalidated once it is known.
+     *
+     * @param url the image
+     * @param width the width to show the image at, or -1 for its own
+     * @param height the height to show the image at, or -1 for its own
+     * @return the icon, which may still be loading
+     */
+    public static Icon icon(URL url, int width, int height) {
+        Key key = new Key(url.toExternalForm(), width, height);
+        if (width < 0 || height < 0) {
+            Dimension size;
+            synchronized (SIZES) {
+                size = SIZES.get(url.toExternalForm());
+            }
+            if (size == null) {
+                AsyncIcon icon = new AsyncIcon(width >= 0 ? width : UNKNOWN_SIZE, height >= 0 ? height : UNKNOWN_SIZE);
+                DECODER.execute(() -> {
+                    try {
+                        Key sized = key(url, size(url), width, height);
+                        SwingUtilities.invokeLater(() -> icon.resize(sized.width, sized.height));
+                        icon.await(load(url, sized));
+                    } catch (Throwable ex) {
+                        LOG.warn("Failed to read image size: {}", url, ex);
+                        icon.await(CompletableFuture.failedFuture(ex));
+                    }
+                });
+                return icon;
+            }
+            key = key(url, size, width, height);
+        }
+        CompletableFuture<BufferedImage> future = load(url, key);
+        BufferedImage image = future.getNow(null);
+        if (image != null) {
+            return new ImageIcon(image);
+        }
+        AsyncIcon icon = new AsyncIcon(key.width, key.height);
+        icon.await(future);
+        return icon;
+    }
+
+    // the size to show an image of the given size at, when one or both are not given
+    private static Key key(URL url, Dimension size, int width, int height) {
+        if (width < 0 && height < 0) {
+            width = size.width;
+            height = size.height;
+        } else if (width < 0) {
+            width = size.height > 0 ? Math.round((float) size.width * height / size.height) : size.width;
+        } else if (height < 0) {
+            height = size.width > 0 ? Math.round((float) size.height * width / size.width) : size.height;
+        }
+        return new Key(url.toExternalForm(), width, height);
+    }
+
+    // the cached image, the decode already in progress, or a new decode on DECODER
+    private static CompletableFuture<BufferedImage> load(URL url, Key key) {
+        CompletableFuture<BufferedImage> future;
+        synchronized (IMAGES) {
+            SoftReference<BufferedImage> cached = IMAGES.get(key);
+            BufferedImage image = cached != null ? cached.get() : null;
+            if (image != null) {
+                return CompletableFuture.completedFuture(image);
+            }
+            future = PENDING.get(key);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            PENDING.put(key, future);
+        }
+        CompletableFuture<BufferedImage> decoded = future;
+        DECODER.execute(() -> decode(url, key, decoded));
+        return future;
+    }
+
+    private static Dimension size(URL url) throws IOException {
+        String href = url.toExternalForm();
+        synchronized (SIZES) {
+            Dimension size = SIZES.get(href);
+            if (size != null) {
+                return size;
+            }
+        }
+        Dimension size;
+        try (InputStream raw = HtmlResources.open(url); ImageInputStream in = new MemoryCacheImageInputStream(raw)) {
+            ImageReader reader = reader(in, url);
+            try {
+                // reads the header only
+                size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+        synchronized (SIZES) {
+            SIZES.put(href, size);
+        }
+        return size;
+    }
+
+    private static void decode(URL url, Key key, CompletableFuture<BufferedImage> future) {
+        try {
+            BufferedImage image = read(url, key.width, key.height);
+            synchronized (IMAGES) {
+                IMAGES.put(key, new SoftReference<>(image));
+                PENDING.remove(key);
+            }
+            future.complete(image);
+        } catch (Throwable ex) {
+            LOG.warn("Failed to read image: {}", url, ex);
+            synchronized (IMAGES) {
+                PENDING.remove(key);
+            }
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private static BufferedImage read(URL url, int width, int height) throws IOException {
+        BufferedImage image;
+        try (InputStream raw = HtmlResources.open(url); ImageInputStream in = new MemoryCacheImageInputStream(raw)) {
+            ImageReader reader = reader(in, url);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                // keeps at least the target resolution; the remainder is scaled below
+                int xSubsampling = Math.max(1, reader.getWidth(0) / Math.max(1, width));
+                int ySubsampling = Math.max(1, reader.getHeight(0) / Math.max(1, height));
+                if (xSubsampling > 1 || ySubsampling > 1) {
+                    param.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+                }
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+        BufferedImage scaled = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static ImageReader reader(ImageInputStream in, URL url) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader for " + url);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    private static <K, V> Map<K, V> lruMap() {
+        return new LinkedHashMap<K, V>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+    }
+
+    /**
+     * An icon showing an image once decoded. Until then it paints an outline, and it remembers
+     * the components it was painted on to repaint them when the image arrives. If the size of
+     * the image was not known, it changes once, when the header has been read.
+     */
+    private static final class AsyncIcon implements Icon {
+        private int width;
+        private int height;
+        private final List<WeakReference<Component>> painted = new ArrayList<>();
+        // the components laid out again for the final size
+        private Set<Component> revalidated;
+        private BufferedImage image;
+        private boolean failed;
+
+        AsyncIcon(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        void await(CompletableFuture<BufferedImage> future) {
+            future.whenComplete((image, ex) -> SwingUtilities.invokeLater(() -> loaded(image)));
+        }
+
+        private void resize(int width, int height) {
+            this.width = width;
+            this.height = height;
+            revalidated = Collections.newSetFromMap(new WeakHashMap<>());
+            for (WeakReference<Component> ref : painted) {
+                Component c = ref.get();
+                if (c != null && revalidated.add(c)) {
+                    c.revalidate();
+                    c.repaint();
+                }
+            }
+        }
+
+        private void loaded(BufferedImage image) {
+            this.image = image;
+            this.failed = image == null;
+            for (WeakReference<Component> ref : painted) {
+                Component c = ref.get();
+                if (c != null) {
+                    c.repaint();
+                }
+            }
+            painted.clear();
+        }
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            if (revalidated != null && c != null && revalidated.add(c)) {
+                // laid out for the placeholder size before it was known
+                c.revalidate();
+            }
+            if (image != null) {
+                g.drawImage(image, x, y, null);
+                return;
+            }
+            if (c != null && !failed && painted.stream().noneMatch(ref -> ref.get() == c)) {
+                painted.add(new WeakReference<>(c));
+            }
+            Color color = g.getColor();
+            g.setColor(PLACEHOLDER);
+            g.drawRect(x, y, width - 1, height - 1);
+            g.setColor(color);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return width;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return height;
+        }
+    }
+
+    private static final class Key {
+        final String href;
+        final int width;
+        final int height;
+
+        Key(String href, int width, int height) {
+            this.href = href;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && href.equals(key.href);
+        }
+
+        @Override
+        public int hashCode() {
+            return (href.hashCode() * 31 + width) * 31 + height;
+        }
+    }
+
+    private static final class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HtmlImages-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
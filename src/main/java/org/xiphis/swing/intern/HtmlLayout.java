@@ -36,17 +36,43 @@ import org.slf4j.event.Level;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextLayout;
 import java.util.*;
+import java.util.List;
 
 public final class HtmlLayout implements LayoutManager2 {
 
     private static final Logger LOG = LoggerFactory.getLogger(HtmlLayout.class);
     private static final Level DEBUG = Level.INFO;
 
-    private final Map<Component, Node> nodeMap;
+    private final Map<Component, Boundary> nodeMap;
+
+    // components and boxes in the order they were added, once there are boxes
+    private final List<Object> flow = new ArrayList<>();
+    private final Map<HtmlBox, Boundary> boxMap = new IdentityHashMap<>();
+
+    // the boxes placed by the last layoutContainer, painted by paint
+    private HtmlBox[] displayBoxes = new HtmlBox[0];
+    private TextLayout[] displayFragments = new TextLayout[0];
+    private Rectangle[] displayBounds = new Rectangle[0];
+    private int displayCount;
+
+    // computed layouts by width limit, valid until the next invalidateLayout
+    private final Map<Integer, Layout> layoutCache;
+    private Container layoutParent;
+
+    // position buffers reused across layoutContainer calls
+    private int[] offsets = new int[0];
+    private int[] spans = new int[0];
+    private int[] reverseOffsets = new int[0];
+    private int[] yOffsets = new int[0];
+    private int[] ySpans = new int[0];
+    private final List<HtmlText> placedTexts = new ArrayList<>();
 
     public HtmlLayout() {
         nodeMap = new IdentityHashMap<>();
+        layoutCache = new HashMap<>();
     }
 
     /**
@@ -67,7 +93,21 @@ public final class HtmlLayout implements LayoutManager2 {
     @Override
     public void addLayoutComponent(Component comp, Object constraints) {
         if (constraints instanceof Node) {
-            nodeMap.put(comp, (Node) constraints);
+            Boundary boundary = new Boundary((Node) constraints);
+            Container parent = comp.getParent();
+            if (!boxMap.isEmpty()) {
+                boundary.relateTo(lastBoundary());
+                flow.add(comp);
+            } else if (parent != null) {
+                // components are normally appended in document order, so relate it to its predecessor now
+                int index = parent.getComponentCount() - 1;
+                while (index >= 0 && parent.getComponent(index) != comp) {
+                    index--;
+                }
+                boundary.relateTo(index > 0 ? nodeMap.get(parent.getComponent(index - 1)) : null);
+            }
+            nodeMap.put(comp, boundary);
+            layoutCache.clear();
         } else {
             throw new IllegalArgumentException("constraint should be of type Node");
         }
@@ -125,7 +165,7 @@ public final class HtmlLayout implements LayoutManager2 {
      */
     @Override
     public void invalidateLayout(Container target) {
-
+        layoutCache.clear();
     }
 
     /**
@@ -150,191 +190,509 @@ public final class HtmlLayout implements LayoutManager2 {
     @Override
     public void removeLayoutComponent(Component comp) {
         nodeMap.remove(comp);
+        flow.remove(comp);
+        layoutCache.clear();
     }
 
-    class Layout {
-        LinkedList<SizeRequirements> totX = new LinkedList<>();
-        LinkedList<SizeRequirements> totY = new LinkedList<>();
-        LinkedList<Row> rows = new LinkedList<>();
+    /**
+     * Text that is wrapped into line fragments, each a separate layout entry.
+     */
+    interface TextRun {
+        LineBreakMeasurer lineBreakMeasurer();
 
-        SizeRequirements width;
-        SizeRequirements height;
+        int length();
 
+        int lineHeight();
+    }
 
-        class Row {
-            LinkedList<SizeRequirements> rowX = new LinkedList<>();
-            LinkedList<SizeRequirements> rowY = new LinkedList<>();
-            LinkedList<Component> comp = new LinkedList<>();
-        }
+    /**
+     * @param comp a component of the laid out container
+     * @return the node it was added for, or {@code null}
+     */
+    Node node(Component comp) {
+        Boundary boundary = nodeMap.get(comp);
+        return boundary != null ? boundary.node : null;
+    }
 
-        void add(Row row) {
-            totX.add(SizeRequirements.getTiledSizeRequirements(row.rowX.toArray(new SizeRequirements[0])));
-            totY.add(SizeRequirements.getAlignedSizeRequirements(row.rowY.toArray(new SizeRequirements[0])));
-            rows.add(row);
-        }
+    /**
+     * Moves the components and boxes onto copies of their nodes. The copies must form the
+     * same tree, so the line breaks come out the same when they are related again.
+     *
+     * @param nodes the copy of each node
+     */
+    void remap(Map<Node, Node> nodes) {
+        nodeMap.replaceAll((comp, boundary) -> new Boundary(nodes.getOrDefault(boundary.node, boundary.node)));
+        boxMap.replaceAll((box, boundary) -> new Boundary(nodes.getOrDefault(boundary.node, boundary.node)));
+        layoutCache.clear();
+    }
 
-        Layout done() {
-            width = SizeRequirements.getAlignedSizeRequirements(totX.toArray(new SizeRequirements[0]));
-            height = SizeRequirements.getTiledSizeRequirements(totY.toArray(new SizeRequirements[0]));
-            return this;
+    /**
+     * Appends content that the container paints itself, after every component and box
+     * added so far.
+     *
+     * @param parent the container
+     * @param box the box
+     */
+    void addBox(Container parent, HtmlBox box) {
+        if (boxMap.isEmpty()) {
+            // until now the components of the container were the whole flow
+            flow.clear();
+            flow.addAll(Arrays.asList(parent.getComponents()));
         }
-
+        Boundary boundary = new Boundary(box.node);
+        boundary.relateTo(lastBoundary());
+        boxMap.put(box, boundary);
+        flow.add(box);
+        layoutCache.clear();
     }
 
-    private Element elementOf(Node node) {
-        for (;;) {
-            if (node instanceof Element) {
-                return (Element) node;
-            }
-            node = node.parentNode();
+    private Boundary lastBoundary() {
+        if (flow.isEmpty()) {
+            return null;
         }
+        Object last = flow.get(flow.size() - 1);
+        return last instanceof HtmlBox ? boxMap.get(last) : nodeMap.get(last);
     }
 
-    private boolean isChild(Element parent, Node child) {
-        while (child != null) {
-            if (child == parent) {
-                return true;
+    /**
+     * Paints the boxes placed by the last layout that intersect the clip.
+     *
+     * @param g the container's graphics
+     */
+    void paint(Graphics g) {
+        if (displayCount == 0) {
+            return;
+        }
+        Rectangle clip = g.getClipBounds();
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            Object hints = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+            if (hints instanceof Map) {
+                g2.addRenderingHints((Map<?, ?>) hints);
             }
-            child = child.parentNode();
+            for (int i = 0; i < displayCount; i++) {
+                Rectangle bounds = displayBounds[i];
+                if (clip == null || clip.intersects(bounds)) {
+                    displayBoxes[i].paint(g2, displayFragments[i], bounds.x, bounds.y, bounds.width, bounds.height);
+                }
+            }
+        } finally {
+            g2.dispose();
         }
-        return false;
     }
 
-    private Iterable<Element> unwind(Element prev, Node current) {
-        return new Iterable<Element>() {
-            @Override
-            public Iterator<Element> iterator() {
-                return new Iterator<>() {
+    /**
+     * The line-broken layout of a container. Size requirements are kept in parallel
+     * primitive arrays, per component and per row, and the requirements of the open row
+     * are kept as running totals, so appending a component is constant time.
+     */
+    static final class Layout {
+        // an entry is a component, or one line fragment of an HtmlText
+        Component[] components;
+        HtmlBox[] boxes;
+        TextLayout[] fragments;
+        int[] minX;
+        int[] prefX;
+        int[] maxX;
+        float[] alignX;
+        int[] minY;
+        int[] prefY;
+        int[] maxY;
+        float[] alignY;
+        int count;
+
+        // row r holds the entries rowStart[r] until rowStart[r + 1]
+        int[] rowStart;
+        // tiled along x
+        int[] rowMinX;
+        int[] rowPrefX;
+        // aligned along y
+        int[] rowMinY;
+        int[] rowPrefY;
+        int[] rowMaxY;
+        float[] rowAlignY;
+        int rows;
+
+        // running totals of the open row
+        private long openMinX;
+        private long openPrefX;
+        private int ascentMinY;
+        private int descentMinY;
+        private int ascentPrefY;
+        private int descentPrefY;
+        private int ascentMaxY;
+        private int descentMaxY;
+
+        // rows aligned along x, tiled along y
+        private int ascentMinX;
+        private int descentMinX;
+        private int ascentPrefX;
+        private int descentPrefX;
+        private long totalMinY;
+        private long totalPrefY;
+
+        int minimumWidth;
+        int preferredWidth;
+        int minimumHeight;
+        int preferredHeight;
+
+        Layout(int capacity) {
+            capacity = Math.max(capacity, 1);
+            components = new Component[capacity];
+            boxes = new HtmlBox[capacity];
+            fragments = new TextLayout[capacity];
+            minX = new int[capacity];
+            prefX = new int[capacity];
+            maxX = new int[capacity];
+            alignX = new float[capacity];
+            minY = new int[capacity];
+            prefY = new int[capacity];
+            maxY = new int[capacity];
+            alignY = new float[capacity];
+            rowStart = new int[capacity + 1];
+            rowMinX = new int[capacity];
+            rowPrefX = new int[capacity];
+            rowMinY = new int[capacity];
+            rowPrefY = new int[capacity];
+            rowMaxY = new int[capacity];
+            rowAlignY = new float[capacity];
+        }
 
-                    Element e = prev;
+        private void grow() {
+            int capacity = components.length * 2;
+            components = Arrays.copyOf(components, capacity);
+            boxes = Arrays.copyOf(boxes, capacity);
+            fragments = Arrays.copyOf(fragments, capacity);
+            minX = Arrays.copyOf(minX, capacity);
+            prefX = Arrays.copyOf(prefX, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            alignX = Arrays.copyOf(alignX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            prefY = Arrays.copyOf(prefY, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+            alignY = Arrays.copyOf(alignY, capacity);
+            rowStart = Arrays.copyOf(rowStart, capacity + 1);
+            rowMinX = Arrays.copyOf(rowMinX, capacity);
+            rowPrefX = Arrays.copyOf(rowPrefX, capacity);
+            rowMinY = Arrays.copyOf(rowMinY, capacity);
+            rowPrefY = Arrays.copyOf(rowPrefY, capacity);
+            rowMaxY = Arrays.copyOf(rowMaxY, capacity);
+            rowAlignY = Arrays.copyOf(rowAlignY, capacity);
+        }
 
+        boolean isRowEmpty() {
+            return rowStart[rows] == count;
+        }
 
-                    @Override
-                    public boolean hasNext() {
-                        if (e == null || isChild(e, current)) {
-                            return false;
-                        }
-                        return true;
-                    }
+        /**
+         * @return the preferred width of the open row if a component of the given
+         * preferred width were appended to it
+         */
+        int preferredRowWidth(int preferred) {
+            return (int) Math.min(openPrefX + preferred, Integer.MAX_VALUE);
+        }
 
-                    @Override
-                    public Element next() {
-                        Element e = this.e;
-                        this.e = e.parent();
-                        return e;
-                    }
-                };
+        /**
+         * Appends an entry for a component or a box, or for one line fragment of either.
+         */
+        void add(Component c, HtmlBox box, TextLayout fragment, int minWidth, int prefWidth, int maxWidth,
+                 int minHeight, int prefHeight, int maxHeight) {
+            if (count == components.length) {
+                grow();
             }
-        };
+            int i = count++;
+            components[i] = c;
+            boxes[i] = box;
+            fragments[i] = fragment;
+            minX[i] = minWidth;
+            prefX[i] = prefWidth;
+            maxX[i] = maxWidth;
+            alignX[i] = c != null ? c.getAlignmentX() : box.getAlignmentX();
+            minY[i] = minHeight;
+            prefY[i] = prefHeight;
+            maxY[i] = maxHeight;
+            float alignment = alignY[i] = c != null ? c.getAlignmentY() : box.getAlignmentY();
+
+            openMinX += minWidth;
+            openPrefX += prefWidth;
+
+            int ascent = (int) (alignment * minHeight);
+            ascentMinY = Math.max(ascent, ascentMinY);
+            descentMinY = Math.max(minHeight - ascent, descentMinY);
+            ascent = (int) (alignment * prefHeight);
+            ascentPrefY = Math.max(ascent, ascentPrefY);
+            descentPrefY = Math.max(prefHeight - ascent, descentPrefY);
+            ascent = (int) (alignment * maxHeight);
+            ascentMaxY = Math.max(ascent, ascentMaxY);
+            descentMaxY = Math.max(maxHeight - ascent, descentMaxY);
+        }
+
+        void endRow() {
+            int r = rows++;
+            rowStart[rows] = count;
+
+            int min = rowMinX[r] = (int) Math.min(openMinX, Integer.MAX_VALUE);
+            int pref = rowPrefX[r] = (int) Math.min(openPrefX, Integer.MAX_VALUE);
+            // rows are centred when their widths are aligned
+            int ascent = (int) (0.5f * min);
+            ascentMinX = Math.max(ascent, ascentMinX);
+            descentMinX = Math.max(min - ascent, descentMinX);
+            ascent = (int) (0.5f * pref);
+            ascentPrefX = Math.max(ascent, ascentPrefX);
+            descentPrefX = Math.max(pref - ascent, descentPrefX);
+
+            min = rowMinY[r] = (int) Math.min((long) ascentMinY + descentMinY, Integer.MAX_VALUE);
+            rowPrefY[r] = (int) Math.min((long) ascentPrefY + descentPrefY, Integer.MAX_VALUE);
+            rowMaxY[r] = (int) Math.min((long) ascentMaxY + descentMaxY, Integer.MAX_VALUE);
+            rowAlignY[r] = min > 0 ? Math.max(0f, Math.min(1f, (float) ascentMinY / min)) : 0f;
+            totalMinY += rowMinY[r];
+            totalPrefY += rowPrefY[r];
+
+            openMinX = 0;
+            openPrefX = 0;
+            ascentMinY = 0;
+            descentMinY = 0;
+            ascentPrefY = 0;
+            descentPrefY = 0;
+            ascentMaxY = 0;
+            descentMaxY = 0;
+        }
+
+        Layout done() {
+            minimumWidth = (int) Math.min((long) ascentMinX + descentMinX, Integer.MAX_VALUE);
+            preferredWidth = (int) Math.min((long) ascentPrefX + descentPrefX, Integer.MAX_VALUE);
+            minimumHeight = (int) Math.min(totalMinY, Integer.MAX_VALUE);
+            preferredHeight = (int) Math.min(totalPrefY, Integer.MAX_VALUE);
+            return this;
+        }
     }
 
-    private Layout computeLayoutSize(Container parent, Dimension limit) {
-        Layout layout = new Layout();
+    /**
+     * Where a component sits in the document, and whether it starts or ends a line
+     * relative to the component before it. Computed when the component is added, and
+     * again only if the component before it changes.
+     */
+    private static final class Boundary {
+        final Node node;
+        final Element element;
+        // depth of the element below the document root
+        final int depth;
+        // an hr or br element, which ends its line
+        final boolean breaksAfter;
+
+        // the node the break flags were computed against
+        private Node previous;
+        private boolean related;
+        // the element starts a block, when the component is visible
+        boolean blockBreak;
+        // the previous component closes a heading
+        boolean headingBreak;
+
+        Boundary(Node node) {
+            this.node = node;
+            this.element = elementOf(node);
+            this.depth = depthOf(element);
+            String tagName = node instanceof Element ? ((Element) node).tagName() : null;
+            this.breaksAfter = "hr".equals(tagName) || "br".equals(tagName);
+        }
 
-        Layout.Row row = layout.new Row();
-        Element prevElement = new Element("html"), currElement;
+        boolean breaksBefore(boolean visible) {
+            return headingBreak || (visible && blockBreak);
+        }
 
-        next: for (Iterator<Component> cIt = Arrays.asList(parent.getComponents()).iterator(); cIt.hasNext(); prevElement = currElement) {
-            Component c = cIt.next();
-            Node curr = nodeMap.get(c);
-            currElement = elementOf(curr);
-            for (;;) {
-                boolean nextLine = false;
-                if (c.isVisible()) {
-                    Dimension min = c.getMinimumSize();
-                    Dimension pref = c.getPreferredSize();
-                    Dimension max = c.getMaximumSize();
-
-                    row.rowX.add(new SizeRequirements(min.width, pref.width, max.width, c.getAlignmentX()));
-                    row.rowY.add(new SizeRequirements(min.height, pref.height, max.height, c.getAlignmentY()));
-
-                    if (prevElement != currElement && !isChild(currElement, prevElement)) {
-                        switch (currElement.tagName()) {
-                            case "a":
-                                break;
-                            case "p":
-                                if (!(curr instanceof Element) && curr.previousSibling() != null) {
-                                    break;
-                                }
-                            case "hr":
-                            case "h1":
-                            case "h2":
-                            case "h3":
-                            case "h4":
-                            case "h5":
-                            case "h6":
-                                nextLine = true;
-                                break;
-                            default:
-                                if (currElement.tag().formatAsBlock()) {
-                                    nextLine = true;
-                                    break;
-                                }
+        /**
+         * Recomputes the break flags if the component before this one is not the one
+         * they were computed against.
+         *
+         * @param prev the boundary of the component before, or {@code null} if there is none
+         */
+        void relateTo(Boundary prev) {
+            Node prevNode = prev != null ? prev.node : null;
+            if (related && previous == prevNode) {
+                return;
+            }
+            related = true;
+            previous = prevNode;
+            blockBreak = false;
+            headingBreak = false;
+            if (prev == null) {
+                return;
+            }
+
+            Element prevElement = prev.element;
+            if (prevElement != element && !isAncestor(element, depth, prevElement, prev.depth)) {
+                switch (element.tagName()) {
+                    case "a":
+                        break;
+                    case "p":
+                        if (!(node instanceof Element) && node.previousSibling() != null) {
+                            break;
+                        }
+                    case "hr":
+                    case "h1":
+                    case "h2":
+                    case "h3":
+                    case "h4":
+                    case "h5":
+                    case "h6":
+                        blockBreak = true;
+                        break;
+                    default:
+                        if (element.tag().formatAsBlock()) {
+                            blockBreak = true;
+                            break;
                         }
-                    }
-                } else {
-                    row.rowX.add(new SizeRequirements(0, 0, 0, c.getAlignmentX()));
-                    row.rowY.add(new SizeRequirements(0, 0, 0, c.getAlignmentY()));
                 }
+            }
 
-                if (!isChild(prevElement, curr)) {
-                    check: for (Element t : unwind(prevElement, curr)) {
-                        switch (t.tagName()) {
-                            case "a":
-                                break;
-                            case "h1":
-                            case "h2":
-                            case "h3":
-                            case "h4":
-                            case "h5":
-                            case "h6":
-                                nextLine = true;
-                                break check;
-                            default:
-                                if (t.tag().formatAsBlock()) {
-                                    //nextLine = true;
-                                    break check;
-                                }
+            // the elements closed between the previous component and this one
+            int t = prev.depth;
+            check: for (Element e = prevElement; e != null && !isAncestor(e, t, element, depth); e = e.parent(), t--) {
+                switch (e.tagName()) {
+                    case "a":
+                        break;
+                    case "h1":
+                    case "h2":
+                    case "h3":
+                    case "h4":
+                    case "h5":
+                    case "h6":
+                        headingBreak = true;
+                        break check;
+                    default:
+                        if (e.tag().formatAsBlock()) {
+                            break check;
                         }
-                    }
                 }
+            }
+        }
 
-                SizeRequirements totalX = SizeRequirements.getTiledSizeRequirements(row.rowX.toArray(new SizeRequirements[0]));
-                //SizeRequirements totalY = SizeRequirements.getAlignedSizeRequirements(rowy.toArray(new SizeRequirements[0]));
-
-                if (!row.comp.isEmpty() && (nextLine || totalX.preferred >= limit.width)) {
-                    row.rowX.removeLast();
-                    row.rowY.removeLast();
-                    layout.add(row);
-                    row = layout.new Row();
-                    continue;
+        private static Element elementOf(Node node) {
+            for (;;) {
+                if (node instanceof Element) {
+                    return (Element) node;
                 }
+                node = node.parentNode();
+            }
+        }
+
+        private static int depthOf(Element element) {
+            int depth = 0;
+            for (Element e = element.parent(); e != null; e = e.parent()) {
+                depth++;
+            }
+            return depth;
+        }
+
+        /**
+         * @return {@code true} if {@code ancestor} is {@code element} or one of its ancestors
+         */
+        private static boolean isAncestor(Element ancestor, int ancestorDepth, Element element, int depth) {
+            while (depth > ancestorDepth) {
+                element = element.parent();
+                depth--;
+            }
+            return element == ancestor;
+        }
+    }
 
-                row.comp.add(c);
+    /**
+     * Returns the layout for a width limit, computing it only if the container has been
+     * invalidated since it was last computed for that width.
+     */
+    private Layout layoutSize(Container parent, Dimension limit) {
+        if (parent != layoutParent) {
+            layoutCache.clear();
+            layoutParent = parent;
+        }
+        Layout layout = layoutCache.get(limit.width);
+        if (layout == null) {
+            layout = computeLayoutSize(parent, limit);
+            layoutCache.put(limit.width, layout);
+        }
+        return layout;
+    }
 
+    private Layout computeLayoutSize(Container parent, Dimension limit) {
+        Object[] items = boxMap.isEmpty() ? parent.getComponents() : flow.toArray();
+        Layout layout = new Layout(items.length);
+
+        Boundary prev = null;
+
+        for (Object item : items) {
+            Component c = item instanceof Component ? (Component) item : null;
+            HtmlBox box = c == null ? (HtmlBox) item : null;
+            Boundary boundary = c != null ? nodeMap.get(c) : boxMap.get(box);
+            boundary.relateTo(prev);
+            prev = boundary;
+
+            boolean visible = c == null || c.isVisible();
+            int minWidth = 0, prefWidth = 0, maxWidth = 0;
+            int minHeight = 0, prefHeight = 0, maxHeight = 0;
+            if (visible && !(item instanceof TextRun)) {
+                Dimension min = c != null ? c.getMinimumSize() : box.getMinimumSize();
+                Dimension pref = c != null ? c.getPreferredSize() : box.getPreferredSize();
+                Dimension max = c != null ? c.getMaximumSize() : box.getMaximumSize();
+                minWidth = min.width;
+                prefWidth = pref.width;
+                maxWidth = max.width;
+                minHeight = min.height;
+                prefHeight = pref.height;
+                maxHeight = max.height;
+            }
+            boolean nextLine = boundary.breaksBefore(visible);
 
-                if (c.isVisible() && curr instanceof Element) {
-                    switch (((Element) curr).tagName()) {
-                        case "hr":
-                        case "br":
-                            layout.add(row);
-                            row = layout.new Row();
-                            break;
-                        default:
-                            break;
-                    }
+            if (item instanceof TextRun && visible) {
+                if (!layout.isRowEmpty() && nextLine) {
+                    layout.endRow();
                 }
+                addText(layout, c, box, (TextRun) item, limit.width);
+                continue;
+            }
 
-                continue next;
+            if (!layout.isRowEmpty() && (nextLine || layout.preferredRowWidth(prefWidth) >= limit.width)) {
+                layout.endRow();
+            }
+
+            layout.add(c, box, null, minWidth, prefWidth, maxWidth, minHeight, prefHeight, maxHeight);
+
+            if (visible && boundary.breaksAfter) {
+                layout.endRow();
             }
         }
-        if (!row.comp.isEmpty()) {
-            layout.add(row);
+        if (!layout.isRowEmpty()) {
+            layout.endRow();
         }
 
         return layout.done();
     }
 
+    /**
+     * Wraps a text run into fragments, the first continuing the open row and each later
+     * one starting a new row.
+     */
+    private void addText(Layout layout, Component c, HtmlBox box, TextRun text, int width) {
+        if (text.length() == 0 || (c != null && c.getFont() == null)) {
+            return;
+        }
+        LineBreakMeasurer measurer = text.lineBreakMeasurer();
+        while (measurer.getPosition() < text.length()) {
+            int available = Math.max(width - layout.preferredRowWidth(0), 1);
+            // on a row that already has content, only take whole words
+            TextLayout line = measurer.nextLayout(available, text.length(), !layout.isRowEmpty());
+            if (line == null) {
+                layout.endRow();
+                continue;
+            }
+            int lineWidth = HtmlText.width(line);
+            int lineHeight = text.lineHeight();
+            layout.add(c, box, line, lineWidth, lineWidth, lineWidth, lineHeight, lineHeight, lineHeight);
+            if (measurer.getPosition() < text.length()) {
+                layout.endRow();
+            }
+        }
+    }
+
     /**
      * Calculates the preferred size dimensions for the specified
      * container, given the components it contains.
@@ -346,11 +704,11 @@ public final class HtmlLayout implements LayoutManager2 {
     @Override
     public Dimension preferredLayoutSize(Container parent) {
         Dimension min = minDimension(parent);
-        Layout layout = computeLayoutSize(parent, foo(parent));
+        Layout layout = layoutSize(parent, foo(parent));
         Insets insets = parent.getInsets();
         return new Dimension(
-                Math.max(min.width, layout.width.preferred + insets.left + insets.right),
-                Math.max(min.height, layout.height.preferred + insets.top + insets.bottom));
+                Math.max(min.width, layout.preferredWidth + insets.left + insets.right),
+                Math.max(min.height, layout.preferredHeight + insets.top + insets.bottom));
     }
 
     /**
@@ -364,11 +722,11 @@ public final class HtmlLayout implements LayoutManager2 {
     @Override
     public Dimension minimumLayoutSize(Container parent) {
         Dimension min = minDimension(parent);
-        Layout layout = computeLayoutSize(parent, foo(parent));
+        Layout layout = layoutSize(parent, foo(parent));
         Insets insets = parent.getInsets();
         return new Dimension(
-                Math.max(min.width, layout.width.minimum + insets.left + insets.right),
-                Math.max(min.height, layout.height.minimum + insets.top + insets.bottom));
+                Math.max(min.width, layout.minimumWidth + insets.left + insets.right),
+                Math.max(min.height, layout.minimumHeight + insets.top + insets.bottom));
     }
 
     private Dimension minDimension(Container parent) {
@@ -402,46 +760,126 @@ public final class HtmlLayout implements LayoutManager2 {
         size.height -= insets.top + insets.bottom;
         size.width -= insets.left + insets.right;
 
-        Layout layout = computeLayoutSize(parent, size);
-
-        int totYSize = layout.totY.size();
-        int[] yOffsets = new int[totYSize];
-        int[] ySpans = new int[totYSize];
-        SizeRequirements.calculateTiledPositions(size.height, layout.height, layout.totY.toArray(new SizeRequirements[0]), yOffsets, ySpans);
-
-        Iterator<Layout.Row> rIt = layout.rows.iterator();
-        Iterator<SizeRequirements> totY = layout.totY.iterator();
-        Iterator<SizeRequirements> totX = layout.totX.iterator();
-        for (int r = 0; rIt.hasNext(); r++) {
-            Layout.Row row = rIt.next();
-            int compSize = row.comp.size();
-            int[] compyOffsets = new int[compSize];
-            int[] compySpans = new int[compSize];
-            SizeRequirements.calculateAlignedPositions(ySpans[r], totY.next(), row.rowY.toArray(new SizeRequirements[0]), compyOffsets, compySpans);
-
-            int[] compxOffsets = new int[compSize];
-            int[] compxSpans = new int[compSize];
-            calculateTiledPositions(size.width, totX.next(), row.rowX.toArray(new SizeRequirements[0]), compxOffsets, compxSpans);
-
-            Iterator<Component> cIt = row.comp.iterator();
-            for (int i = 0; cIt.hasNext(); i++) {
-                Component comp = cIt.next();
-                comp.setBounds(compxOffsets[i] + insets.left, compyOffsets[i] + yOffsets[r] + insets.top, compxSpans[i], compySpans[i]);
+        Layout layout = layoutSize(parent, size);
+
+        if (offsets.length < layout.count) {
+            offsets = new int[layout.count];
+            spans = new int[layout.count];
+            reverseOffsets = new int[layout.count];
+            yOffsets = new int[layout.count];
+            ySpans = new int[layout.count];
+        }
+        Arrays.fill(displayBoxes, 0, displayCount, null);
+        Arrays.fill(displayFragments, 0, displayCount, null);
+        displayCount = 0;
+
+        tiledPositions(size.height, layout.rowMinY, layout.rowPrefY, layout.rowMaxY,
+                0, layout.rows, yOffsets, ySpans, true);
+
+        for (int r = 0; r < layout.rows; r++) {
+            int from = layout.rowStart[r];
+            int to = layout.rowStart[r + 1];
+
+            int rowHeight = ySpans[r];
+            int rowAscent = (int) (rowHeight * layout.rowAlignY[r]);
+            int rowDescent = rowHeight - rowAscent;
+
+            // each component is aligned within the row, then placed by blending its offsets
+            // when tiled from the left and from the right by its x alignment
+            tiledPositions(size.width, layout.minX, layout.prefX, layout.maxX, from, to, reverseOffsets, spans, false);
+            tiledPositions(size.width, layout.minX, layout.prefX, layout.maxX, from, to, offsets, spans, true);
+
+            for (int i = from; i < to; i++) {
+                float alignment = layout.alignX[i];
+                int x = (int) ((alignment * reverseOffsets[i]) + ((1f - alignment) * offsets[i]));
+
+                int maxAscent = (int) (layout.maxY[i] * layout.alignY[i]);
+                int maxDescent = layout.maxY[i] - maxAscent;
+                int ascent = Math.min(rowAscent, maxAscent);
+                int descent = Math.min(rowDescent, maxDescent);
+                int y = rowAscent - ascent + yOffsets[r];
+                int height = (int) Math.min((long) ascent + descent, Integer.MAX_VALUE);
+
+                if (layout.boxes[i] != null) {
+                    display(layout.boxes[i], layout.fragments[i],
+                            new Rectangle(x + insets.left, y + insets.top, spans[i], height));
+                    continue;
+                }
+                Component comp = layout.components[i];
+                if (layout.fragments[i] != null) {
+                    HtmlText text = (HtmlText) comp;
+                    if (i == 0 || layout.components[i - 1] != comp) {
+                        text.clearLines();
+                        placedTexts.add(text);
+                    }
+                    text.placeLine(layout.fragments[i], x + insets.left, y + insets.top);
+                    continue;
+                }
+                comp.setBounds(x + insets.left, y + insets.top, spans[i], height);
                 comp.doLayout();
             }
         }
+        for (HtmlText text : placedTexts) {
+            text.finishLines();
+        }
+        placedTexts.clear();
     }
 
-    private void calculateTiledPositions(int allocated, SizeRequirements total, SizeRequirements[] children, int[] offsets, int[] spans) {
-        int[] roffsets = new int[offsets.length];
-        SizeRequirements.calculateTiledPositions(allocated, total, children, roffsets, spans, false);
-        SizeRequirements.calculateTiledPositions(allocated, total, children, offsets, spans);
+    private void display(HtmlBox box, TextLayout fragment, Rectangle bounds) {
+        if (displayCount == displayBoxes.length) {
+            int capacity = Math.max(16, displayCount * 2);
+            displayBoxes = Arrays.copyOf(displayBoxes, capacity);
+            displayFragments = Arrays.copyOf(displayFragments, capacity);
+            displayBounds = Arrays.copyOf(displayBounds, capacity);
+        }
+        displayBoxes[displayCount] = box;
+        displayFragments[displayCount] = fragment;
+        displayBounds[displayCount] = bounds;
+        displayCount++;
+    }
+
+    /**
+     * Tiles the entries {@code from} until {@code to} along an axis, as
+     * {@link SizeRequirements#calculateTiledPositions(int, SizeRequirements, SizeRequirements[], int[], int[], boolean)}
+     * does, writing each result at the entry's own index.
+     */
+    private static void tiledPositions(int allocated, int[] minimum, int[] preferred, int[] maximum,
+                                       int from, int to, int[] offsets, int[] spans, boolean forward) {
+        long min = 0;
+        long pref = 0;
+        long max = 0;
+        for (int i = from; i < to; i++) {
+            min += minimum[i];
+            pref += preferred[i];
+            max += maximum[i];
+        }
+        int totalOffset = forward ? 0 : allocated;
+        if (allocated >= pref) {
+            float totalPlay = Math.min(allocated - pref, max - pref);
+            float factor = (max - pref == 0) ? 0.0f : totalPlay / (max - pref);
+            for (int i = from; i < to; i++) {
+                int play = (int) (factor * (maximum[i] - preferred[i]));
+                spans[i] = (int) Math.min((long) preferred[i] + (long) play, Integer.MAX_VALUE);
+                totalOffset = place(i, totalOffset, offsets, spans, forward);
+            }
+        } else {
+            float totalPlay = Math.min(pref - allocated, pref - min);
+            float factor = (pref - min == 0) ? 0.0f : totalPlay / (pref - min);
+            for (int i = from; i < to; i++) {
+                float play = factor * (preferred[i] - minimum[i]);
+                spans[i] = (int) (preferred[i] - play);
+                totalOffset = place(i, totalOffset, offsets, spans, forward);
+            }
+        }
+    }
 
-        // TODO: fix stupid solution with something that would work better later
-        for (int i = 0; i < children.length; i++) {
-            float alignment = children[i].alignment;
-            int offset = (int) ((alignment * roffsets[i]) + ((1f - alignment) * offsets[i]));
-            offsets[i] = offset;
+    private static int place(int i, int totalOffset, int[] offsets, int[] spans, boolean forward) {
+        if (forward) {
+            offsets[i] = totalOffset;
+            return (int) Math.min((long) totalOffset + (long) spans[i], Integer.MAX_VALUE);
+        } else {
+            offsets[i] = totalOffset - spans[i];
+            return (int) Math.max((long) totalOffset - (long) spans[i], 0);
         }
     }
 }
@@ -0,0 +1,192 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import javax.swing.*;
+import javax.swing.border.Border;
+import java.awt.*;
+
+/**
+ * Stands in for the panel of a subtree until it is first painted. Swing only paints what
+ * intersects the clip, so inside a {@link JScrollPane} the subtree is built once it scrolls
+ * into the viewport. Until then its preferred size is estimated from the subtree's text.
+ * <p>
+ * Only subtrees that need no eager registration are deferred: those without ids, names,
+ * {@code for} attributes or form controls.
+ */
+final class HtmlLazyPanel extends JPanel {
+
+    // the width assumed for wrapping text when estimating the height
+    private static final int ESTIMATED_WIDTH = 480;
+
+    private final HtmlContext context;
+    private Element body;
+    private final Border border;
+    private final int textLength;
+    private final int lines;
+    private HtmlPanel content;
+    private boolean pending;
+
+    private HtmlLazyPanel(HtmlContext context, Element body, Border border, int textLength, int lines) {
+        super(new BorderLayout());
+        this.context = context;
+        this.body = body;
+        this.border = border;
+        this.textLength = textLength;
+        this.lines = lines;
+    }
+
+    /**
+     * Creates the panel for a subtree, deferred if the context is lazy and the subtree
+     * allows it.
+     *
+     * @param context the context
+     * @param body the root of the subtree
+     * @param border the border of the panel, or {@code null}
+     * @return the panel or its placeholder
+     */
+    static JComponent create(HtmlContext context, Element body, Border border) {
+        if (context.isLazy()) {
+            int[] counts = new int[2];
+            if (scan(body, counts)) {
+                return new HtmlLazyPanel(context, body, border, counts[0], counts[1]);
+            }
+        }
+        return new HtmlPanel(context, body, border);
+    }
+
+    /**
+     * @param el the root of a subtree
+     * @return {@code true} if the subtree holds no form controls and no elements with an id,
+     * name or {@code for} attribute
+     */
+    static boolean isStatic(Element el) {
+        return scan(el, new int[2]);
+    }
+
+    // counts text length and the lines text starts; false if the subtree must be built eagerly
+    private static boolean scan(Element el, int[] counts) {
+        if (el.hasAttr("id") || el.hasAttr("name") || el.hasAttr("for")) {
+            return false;
+        }
+        switch (el.tagName()) {
+            case "form":
+            case "input":
+            case "select":
+            case "textarea":
+            case "button":
+            case "meter":
+            case "progress":
+                return false;
+            case "br":
+                counts[1]++;
+                break;
+            default:
+        }
+        boolean block = el.tag().formatAsBlock();
+        for (Node child : el.childNodes()) {
+            if (child instanceof TextNode) {
+                TextNode text = (TextNode) child;
+                if (block && !text.isBlank()) {
+                    counts[1]++;
+                    block = false;
+                }
+                counts[0] += text.text().length();
+            } else if (child instanceof Element && !scan((Element) child, counts)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Element body() {
+        return body;
+    }
+
+    void rebind(Element body) {
+        this.body = body;
+    }
+
+    Border defaultBorder() {
+        return border;
+    }
+
+    /**
+     * @return the panel built for the subtree, or {@code null} if it has not been painted yet
+     */
+    HtmlPanel content() {
+        return content;
+    }
+
+    private void materialize() {
+        if (content != null) {
+            return;
+        }
+        content = new HtmlPanel(context, body, border);
+        content.setFont(getFont());
+        content.setForeground(getForeground());
+        content.setBackground(getBackground());
+        content.setOpaque(false);
+        add(content, BorderLayout.CENTER);
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (content != null || isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        FontMetrics fm = getFontMetrics(getFont());
+        int textWidth = textLength * fm.charWidth('n');
+        int lines = Math.max(this.lines, (textWidth + ESTIMATED_WIDTH - 1) / ESTIMATED_WIDTH);
+        Insets insets = getInsets();
+        return new Dimension(Math.min(textWidth, ESTIMATED_WIDTH) + insets.left + insets.right,
+                Math.max(1, lines) * fm.getHeight() + insets.top + insets.bottom);
+    }
+
+    @Override
+    public Dimension getMinimumSize() {
+        return content != null ? super.getMinimumSize() : getPreferredSize();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (content == null && !pending) {
+            // the hierarchy must not change while painting
+            pending = true;
+            SwingUtilities.invokeLater(this::materialize);
+        }
+    }
+}
@@ -44,23 +44,24 @@ import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Vector;
 import java.util.function.Consumer;
 import java.util.function.IntBinaryOperator;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.xiphis.swing.intern.HtmlStyle.*;
 
 public class HtmlPanel extends JPanel {
-    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Element body;
+    private Element body;
     private final HtmlContext context;
+    // the border given by the enclosing panel, kept for rebuilding
+    private final Border defaultBorder;
+    // the border render() set, as opposed to one set by the owner of this panel
+    private Border renderedBorder;
 
     public HtmlPanel(HtmlContext context, Element body) {
         this(context, body, null);
@@ -69,7 +70,12 @@ public class HtmlPanel extends JPanel {
     HtmlPanel(HtmlContext context, Element body, Border border) {
         this.body = Objects.requireNonNull(body);
         this.context = Objects.requireNonNull(context);
+        this.defaultBorder = border;
+        render(border);
+    }
 
+    private void render(Border border) {
+        context.register(this);
         String title = null;
         if (body.hasAttr("title")) {
             title = body.attr("title");
@@ -94,7 +100,12 @@ public class HtmlPanel extends JPanel {
                 if (border == null) {
                     border = BorderFactory.createLineBorder(Color.BLACK);
                 }
-                renderTable(border);
+                if (HtmlTable.isVirtual(context, body)) {
+                    setLayout(new GridBagLayout());
+                    add(new HtmlTable(context, body, border), new GridBagConstraints());
+                } else {
+                    renderTable(border);
+                }
                 break;
             }
             case "ul":
@@ -112,7 +123,7 @@ public class HtmlPanel extends JPanel {
                     c.gridx = 1;
                     c.gridy = y;
                     c.fill = GridBagConstraints.HORIZONTAL;
-                    add(this, new HtmlPanel(context, el), c, el, null);
+                    add(this, HtmlLazyPanel.create(context, el, null), c, el, null);
                     y++;
                 }
                 break;
@@ -150,7 +161,7 @@ public class HtmlPanel extends JPanel {
                             continue;
                     }
                     c.gridy = y++;
-                    add(this, new HtmlPanel(context, el), c, el, null);
+                    add(this, HtmlLazyPanel.create(context, el, null), c, el, null);
                 }
                 break;
             }
@@ -182,12 +193,77 @@ public class HtmlPanel extends JPanel {
         if (border != null) {
             setBorder(border);
         }
+        renderedBorder = border;
     }
 
     Element body() {
         return body;
     }
 
+    /**
+     * Moves this panel onto a copy of its element, which must have the same content.
+     *
+     * @param body the copy
+     */
+    void rebind(Element body) {
+        this.body = Objects.requireNonNull(body);
+    }
+
+    Border defaultBorder() {
+        return defaultBorder;
+    }
+
+    /**
+     * Updates this panel to show another document, changing only the components for the
+     * parts that differ; see {@link HtmlPatch}.
+     *
+     * @param html the new document, complete or a body fragment as this panel's was
+     */
+    public void setHtml(String html) {
+        HtmlPatch.apply(this, html);
+    }
+
+    /**
+     * Discards the components of this panel and renders {@code body} in their place.
+     *
+     * @param body the element to show
+     */
+    void rebuild(Element body) {
+        this.body = Objects.requireNonNull(body);
+        removeAll();
+        if (getBorder() == renderedBorder) {
+            setBorder(null);
+        }
+        setToolTipText(null);
+        render(defaultBorder);
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Replaces a panel added by this panel, or one of its placeholders, with a panel for
+     * another element, in the same place. Not for panels within flowing text, which
+     * inherit the style of the text around them.
+     *
+     * @param old the panel to replace
+     * @param el the element to render instead
+     */
+    void replaceChild(Component old, Element el) {
+        JPanel container = (JPanel) old.getParent();
+        int index = container.getComponentZOrder(old);
+        LayoutManager layout = container.getLayout();
+        Object constraint = null;
+        if (layout instanceof GridBagLayout) {
+            constraint = ((GridBagLayout) layout).getConstraints(old);
+        }
+        Border border = old instanceof HtmlPanel ? ((HtmlPanel) old).defaultBorder()
+                : old instanceof HtmlLazyPanel ? ((HtmlLazyPanel) old).defaultBorder() : null;
+        container.remove(index);
+        add(container, HtmlLazyPanel.create(context, el, border), constraint, el, null, false, index);
+        container.revalidate();
+        container.repaint();
+    }
+
     private void renderArticles() {
         setLayout(new GridBagLayout());
 
@@ -201,7 +277,7 @@ public class HtmlPanel extends JPanel {
             c.gridheight = 1;
             c.fill = GridBagConstraints.HORIZONTAL;
 
-            add(this, new HtmlPanel(context, el), c, el, null);
+            add(this, HtmlLazyPanel.create(context, el, null), c, el, null);
         }
 
         JPanel nav = null;
@@ -217,7 +293,7 @@ public class HtmlPanel extends JPanel {
                 nav = new JPanel(new FlowLayout());
                 add(this, nav, c, el, null);
             }
-            add(nav, new HtmlPanel(context, el), null, el, null);
+            add(nav, HtmlLazyPanel.create(context, el, null), null, el, null);
         }
 
         int asidey = y;
@@ -230,7 +306,7 @@ public class HtmlPanel extends JPanel {
             c.gridheight = 1;
             c.fill = GridBagConstraints.HORIZONTAL;
 
-            add(this, new HtmlPanel(context, el), c, el, null);
+            add(this, HtmlLazyPanel.create(context, el, null), c, el, null);
         }
 
         for (Element el : elementsByTag(body, "article")) {
@@ -240,7 +316,7 @@ public class HtmlPanel extends JPanel {
             c.gridy = y++;
             c.gridheight = 1;
             c.fill = GridBagConstraints.HORIZONTAL;
-            add(this, new HtmlPanel(context, el), c, el, null);
+            add(this, HtmlLazyPanel.create(context, el, null), c, el, null);
         }
 
         JPanel aside = null;
@@ -259,7 +335,7 @@ public class HtmlPanel extends JPanel {
                 aside.setLayout(new BoxLayout(aside, BoxLayout.Y_AXIS));
                 add(this, aside, c, el, null);
             }
-            add(aside, new HtmlPanel(context, el), null, el, null);
+            add(aside, HtmlLazyPanel.create(context, el, null), null, el, null);
         }
         for (Element el : elementsByTag(body, "footer")) {
             GridBagConstraints c = new GridBagConstraints();
@@ -268,7 +344,7 @@ public class HtmlPanel extends JPanel {
             c.gridy = y++;
             c.gridheight = 1;
             c.fill = GridBagConstraints.HORIZONTAL;
-            add(this, new HtmlPanel(context, el), c, el, null);
+            add(this, HtmlLazyPanel.create(context, el, null), c, el, null);
         }
     }
 
@@ -353,11 +429,17 @@ public class HtmlPanel extends JPanel {
     }
     private void add(JPanel panel, JComponent comp, Object constraint,
                      Node n, Attr attr, boolean scrollbars) {
+        add(panel, comp, constraint, n, attr, scrollbars, -1);
+    }
+
+    private void add(JPanel panel, JComponent comp, Object constraint,
+                     Node n, Attr attr, boolean scrollbars, int index) {
+        panel.add(scrollbars ? new JScrollPane(comp) : comp, constraint, index);
         if (attr != null) {
-            attr.apply(comp);
+            context.applyStyle(comp, n, attr.font, attr.fgColor, attr.bgColor);
+        } else {
+            context.applyStyle(comp, n);
         }
-        panel.add(scrollbars ? new JScrollPane(comp) : comp, constraint);
-        context.applyStyle(comp, n);
         if (n instanceof Element) {
             if (n.hasAttr("name")) {
                 comp.setName(n.attr("name"));
@@ -437,45 +519,90 @@ public class HtmlPanel extends JPanel {
         }
     }
 
+    private void addBox(JPanel panel, HtmlBox box) {
+        ((HtmlLayout) panel.getLayout()).addBox(panel, box);
+    }
+
+    /**
+     * Applies the computed style of a node to inherited attributes, as adding a
+     * component for it would.
+     */
+    private Attr styled(Node n, Attr attr) {
+        while (!(n instanceof Element)) {
+            n = n.parentNode();
+        }
+        HtmlComputedStyle style = context.computedStyle((Element) n);
+        attr.font = style.deriveFont(attr.font != null ? attr.font : getFont());
+        if (style.foreground() != null) {
+            attr.fgColor = style.foreground();
+        }
+        if (style.background() != null) {
+            attr.bgColor = style.background();
+        }
+        return attr;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (getLayout() instanceof HtmlLayout) {
+            ((HtmlLayout) getLayout()).paint(g);
+        }
+    }
+
     private void renderContent(JPanel panel, Element body, Attr attr) {
         for (Node n : body.childNodes()) {
             if (n instanceof Element) {
                 Element el = (Element) n;
                 switch (el.tagName()) {
                     case "br": {
-                        add(panel, new JLabel(" "), el, attr.copy());
+                        if (context.isPaintOnly()) {
+                            Attr style = styled(el, attr.copy());
+                            addBox(panel, new HtmlBox.Strut(el, panel.getFontMetrics(style.font)));
+                        } else {
+                            add(panel, new JLabel(" "), el, attr.copy());
+                        }
                         continue;
                     }
                     case "hr": {
-                        add(panel, new JSeparator(), el, attr.copy());
+                        if (context.isPaintOnly()) {
+                            addBox(panel, new HtmlBox.Rule(el));
+                        } else {
+                            add(panel, new JSeparator(), el, attr.copy());
+                        }
                         continue;
                     }
                     case "embed":
                         add(panel, new JPanel(), el, attr.copy());
                         continue;
                     case "table":
-                        add(panel, new HtmlPanel(context, el), el,  attr.copy());
+                        add(panel, HtmlLazyPanel.create(context, el, null), el,  attr.copy());
                         continue;
                     case "img": {
                         try {
-                            URL imageUrl = getClass().getResource(el.attr("src"));
+                            URL imageUrl = context.forResource(el.attr("src"));
                             if (imageUrl == null) {
                                 log.warn("Unable to find resource for {}", el.html());
                             } else {
-                                ImageIcon imageIcon = new ImageIcon(imageUrl);
-                                JLabel label = new JLabel(imageIcon);
-
-                                if (el.hasAttr("width") && el.hasAttr("height")) {
-                                    try {
-                                        int width = Integer.parseUnsignedInt(el.attr("width"));
-                                        int height = Integer.parseUnsignedInt(el.attr("height"));
-                                        Image newImage = imageIcon.getImage().getScaledInstance(width, height, Image.SCALE_SMOOTH);
-                                        label.setIcon(new ImageIcon(newImage));
-                                    } catch (Exception ex) {
-                                        log.warn("Failed to scale image for {}", el);
+                                int width = -1;
+                                int height = -1;
+                                try {
+                                    if (el.hasAttr("width")) {
+                                        width = Integer.parseUnsignedInt(el.attr("width"));
                                     }
+                                    if (el.hasAttr("height")) {
+                                        height = Integer.parseUnsignedInt(el.attr("height"));
+                                    }
+                                } catch (Exception ex) {
+                                    log.warn("Failed to scale image for {}", el);
                                 }
+                                Icon imageIcon = HtmlImages.icon(imageUrl, width, height);
 
+                                if (context.isPaintOnly()) {
+                                    addBox(panel, new HtmlBox.Image(el, imageIcon, panel));
+                                    continue;
+                                }
+                                JLabel label = new JLabel(imageIcon);
                                 if (el.hasAttr("alt")) {
                                     label.setToolTipText(el.attr("alt"));
                                 }
@@ -559,17 +686,7 @@ public class HtmlPanel extends JPanel {
                         continue;
                     }
                     case "select": {
-                        Vector<ComboBoxOption> options = new Vector<>();
-                        for (Element o : elementsByTag(el, "option")) {
-                            String value = o.attr("value");
-                            String text = o.text();
-                            if (value == null || value.isBlank()) {
-                                value = text;
-                            }
-                            options.add(new ComboBoxOption(value, text));
-                        }
-                        JComboBox<ComboBoxOption> comboBox = new JComboBox<>(options);
-                        add(panel, comboBox, el, attr.copy());
+                        add(panel, new HtmlSelect(el), el, attr.copy());
                         continue;
                     }
                     case "meter":
@@ -717,18 +834,16 @@ public class HtmlPanel extends JPanel {
             } else if (n instanceof TextNode) {
                 TextNode t = (TextNode) n;
 
+                // text() has its whitespace collapsed already; the run is wrapped by the layout
                 String s = t.text();
-                Matcher m = WHITESPACE.matcher(s);
-                int prev = 0;
-                while (m.find()) {
-                    if (prev != m.start()) {
-                        add(panel, new JLabel(s.substring(prev, m.start())), t, attr);
-                    }
-                    add(panel, new JLabel(" "), t, attr);
-                    prev = m.end();
+                if (s.isEmpty()) {
+                    continue;
                 }
-                if (prev != s.length()) {
-                    add(panel, new JLabel(s.substring(prev, s.length())), t, attr);
+                if (context.isPaintOnly()) {
+                    styled(t, attr);
+                    addBox(panel, new HtmlBox.Text(t, s, attr.font, attr.fgColor, panel.getFontMetrics(attr.font)));
+                } else {
+                    add(panel, new HtmlText(s), t, attr);
                 }
             }
         }
@@ -812,29 +927,17 @@ public class HtmlPanel extends JPanel {
 
         Attr deriveFont(Map<? extends AttributedCharacterIterator.Attribute, ?> attributes) {
             return new Attr(
-                    font.deriveFont(attributes),
+                    HtmlFonts.derive(font, attributes),
                     fgColor,
                     bgColor
             );
         }
         Attr deriveFontDelta(float delta) {
             return new Attr(
-                    font.deriveFont(font.getSize2D() + delta),
+                    HtmlFonts.derive(font, font.getSize2D() + delta),
                     fgColor,
                     bgColor
             );
         }
-
-        void apply(Component comp) {
-            if (font != null) {
-                comp.setFont(font);
-            }
-            if (fgColor != null) {
-                comp.setForeground(fgColor);
-            }
-            if (bgColor != null) {
-                comp.setBackground(bgColor);
-            }
-        }
     }
 }
@@ -0,0 +1,205 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Updates a rendered panel to a new document in place. The new tree is matched against the
+ * current one by position, tag and attributes (and so id). Changed text is set on the text
+ * components already showing it, unchanged panels are kept as they are, and only the
+ * smallest panel that contains a change of structure or attributes is built again. If the
+ * style sheets select elements by their siblings, that is the panel containing the panel
+ * that changed.
+ * <p>
+ * A change to the style sheets restyles everything, so it rebuilds the whole document, as
+ * does the first update of a context instantiated from a shared {@link HtmlTemplate}.
+ */
+final class HtmlPatch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlPatch.class);
+
+    private final HtmlContext context;
+    private int texts;
+    private int panels;
+
+    private HtmlPatch(HtmlContext context) {
+        this.context = context;
+    }
+
+    static void apply(HtmlPanel root, String html) {
+        HtmlContext context = root.context();
+        Document document = context.parse(html);
+        Element body = root.body() instanceof Document ? document : document.body();
+        HtmlPatch patch = new HtmlPatch(context);
+        if (context.isShared() || !styles(context.document()).equals(styles(document))
+                || !patch.update(root, root.body(), body)) {
+            context.reload(document);
+            root.rebuild(body);
+            LOG.debug("Rebuilt document");
+        } else {
+            LOG.debug("Patched {} texts and rebuilt {} panels", patch.texts, patch.panels);
+        }
+        context.init();
+    }
+
+    private static String styles(Document document) {
+        StringBuilder sb = new StringBuilder(document.head().outerHtml());
+        for (Element el : document.body().select("style, link")) {
+            sb.append(el.outerHtml());
+        }
+        return sb.toString();
+    }
+
+    private static boolean same(Element a, Element b) {
+        return a.tagName().equals(b.tagName()) && a.attributes().equals(b.attributes());
+    }
+
+    /**
+     * @return {@code false} if the panel has to be built again
+     */
+    private boolean update(HtmlPanel panel, Element current, Element next) {
+        if (!same(current, next)) {
+            return false;
+        }
+        Map<Element, JComponent> children = new IdentityHashMap<>();
+        childPanels(panel, children);
+        Map<TextNode, HtmlText> text = new IdentityHashMap<>();
+        if (panel.getLayout() instanceof HtmlLayout) {
+            HtmlLayout layout = (HtmlLayout) panel.getLayout();
+            for (Component c : panel.getComponents()) {
+                Node n = layout.node(c);
+                if (n instanceof TextNode && c instanceof HtmlText) {
+                    text.put((TextNode) n, (HtmlText) c);
+                }
+            }
+        }
+        return diff(panel, current, next, children, text);
+    }
+
+    private static void childPanels(Container container, Map<Element, JComponent> children) {
+        for (Component c : container.getComponents()) {
+            if (c instanceof HtmlPanel) {
+                children.put(((HtmlPanel) c).body(), (HtmlPanel) c);
+            } else if (c instanceof HtmlLazyPanel) {
+                HtmlLazyPanel lazy = (HtmlLazyPanel) c;
+                children.put(lazy.content() != null ? lazy.content().body() : lazy.body(), lazy);
+            } else if (c instanceof Container) {
+                childPanels((Container) c, children);
+            }
+        }
+    }
+
+    private boolean diff(HtmlPanel panel, Element current, Element next,
+                         Map<Element, JComponent> children, Map<TextNode, HtmlText> text) {
+        List<Node> currentNodes = new ArrayList<>(current.childNodes());
+        List<Node> nextNodes = new ArrayList<>(next.childNodes());
+        if (currentNodes.size() != nextNodes.size()) {
+            return false;
+        }
+        for (int i = 0; i < currentNodes.size(); i++) {
+            Node a = currentNodes.get(i);
+            Node b = nextNodes.get(i);
+            if (a.getClass() != b.getClass()) {
+                return false;
+            }
+            if (a instanceof TextNode) {
+                TextNode t = (TextNode) a;
+                String whole = ((TextNode) b).getWholeText();
+                if (t.getWholeText().equals(whole)) {
+                    continue;
+                }
+                String s = ((TextNode) b).text();
+                if (!t.text().equals(s)) {
+                    HtmlText component = text.get(t);
+                    if (component == null || s.isEmpty()) {
+                        return false;
+                    }
+                    component.setText(s);
+                    texts++;
+                }
+                t.text(whole);
+            } else if (a instanceof Element) {
+                Element el = (Element) a;
+                JComponent child = children.get(el);
+                if (child != null) {
+                    if (!updateChild(panel, child, el, (Element) b)) {
+                        return false;
+                    }
+                } else if (!same(el, (Element) b) || !diff(panel, el, (Element) b, children, text)) {
+                    return false;
+                }
+            } else if (!a.outerHtml().equals(b.outerHtml())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean updateChild(HtmlPanel owner, JComponent child, Element current, Element next) {
+        HtmlPanel content = child instanceof HtmlPanel ? (HtmlPanel) child : ((HtmlLazyPanel) child).content();
+        if (content != null ? update(content, current, next) : current.outerHtml().equals(next.outerHtml())) {
+            return true;
+        }
+        // a changed element may change how its parent lays out its children, and the styles
+        // of its siblings; so may any change if the style sheets select by siblings
+        if (!same(current, next) || context.dependsOnSiblings()) {
+            return false;
+        }
+        // the new document stays intact in case the whole of it has to be rendered after all
+        Element copy = next.clone();
+        if (child.getParent().getLayout() instanceof HtmlLayout) {
+            // panels within flowing text inherit its style, so they are only rebuilt in place
+            if (content == null) {
+                return false;
+            }
+            context.forget(current, content.getComponents());
+            current.replaceWith(copy);
+            content.rebuild(copy);
+        } else {
+            context.forget(current, child);
+            current.replaceWith(copy);
+            owner.replaceChild(child, copy);
+        }
+        panels++;
+        return true;
+    }
+}
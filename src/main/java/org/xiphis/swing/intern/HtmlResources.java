@@ -0,0 +1,287 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the resources a document refers to, such as style sheets and images, against a
+ * list of roots. Lookups are cached, found and missing alike, so each path is searched for
+ * once; lookups through the context class loader are cached per loader.
+ * <p>
+ * Contexts use {@link #defaults()} unless given their own resolver. It searches the context
+ * class loader, then relative to this library, then the system class loader.
+ */
+public final class HtmlResources {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlResources.class);
+
+    private static volatile HtmlResources defaults = new HtmlResources(Arrays.asList(
+            contextClassLoader(),
+            classpath(HtmlResources.class),
+            classpath(ClassLoader.getSystemClassLoader())));
+
+    private final List<Root> roots;
+    private final boolean contextDependent;
+    private final Map<String, Optional<URL>> cache = new ConcurrentHashMap<>();
+    private final Map<ClassLoader, Map<String, Optional<URL>>> contextCaches = new WeakHashMap<>();
+
+    /**
+     * A place resources are looked up in.
+     */
+    @FunctionalInterface
+    public interface Root {
+        /**
+         * @param path the path of the resource
+         * @return the resource, or {@code null} if this root has none at {@code path}
+         * @throws IOException if the root cannot be searched
+         */
+        URL find(String path) throws IOException;
+    }
+
+    /**
+     * @param roots the roots to search, in order
+     */
+    public HtmlResources(List<Root> roots) {
+        this.roots = List.copyOf(roots);
+        this.contextDependent = this.roots.stream().anyMatch(root -> root instanceof ContextRoot);
+    }
+
+    public static HtmlResources of(Root... roots) {
+        return new HtmlResources(Arrays.asList(roots));
+    }
+
+    /**
+     * @return the resolver used by contexts that are not given one
+     */
+    public static HtmlResources defaults() {
+        return defaults;
+    }
+
+    /**
+     * Replaces the resolver used by contexts created from now on that are not given one.
+     *
+     * @param resources the resolver
+     */
+    public static void setDefaults(HtmlResources resources) {
+        defaults = Objects.requireNonNull(resources);
+    }
+
+    /**
+     * @return a root searching the context class loader of the calling thread
+     */
+    public static Root contextClassLoader() {
+        return new ContextRoot();
+    }
+
+    /**
+     * @param loader a class loader
+     * @return a root searching {@code loader}
+     */
+    public static Root classpath(ClassLoader loader) {
+        Objects.requireNonNull(loader);
+        return path -> loader.getResource(stripSlash(path));
+    }
+
+    /**
+     * @param anchor a class
+     * @return a root resolving as {@link Class#getResource} does: absolute paths from the
+     * class loader of {@code anchor}, relative ones from its package
+     */
+    public static Root classpath(Class<?> anchor) {
+        Objects.requireNonNull(anchor);
+        return anchor::getResource;
+    }
+
+    /**
+     * @param directory a directory
+     * @return a root resolving paths within {@code directory}
+     */
+    public static Root directory(Path directory) {
+        Path root = directory.toAbsolutePath().normalize();
+        return path -> {
+            Path resolved = root.resolve(stripSlash(path)).normalize();
+            return resolved.startsWith(root) && Files.isRegularFile(resolved) ? resolved.toUri().toURL() : null;
+        };
+    }
+
+    /**
+     * @param zip a zip or jar file, opened on first use and kept open
+     * @return a root resolving paths within {@code zip}
+     */
+    public static Root zip(Path zip) {
+        return new ZipRoot(zip);
+    }
+
+    /**
+     * @param path the path of a resource
+     * @return the resource, or {@code null} if no root has it
+     */
+    public URL find(String path) {
+        Map<String, Optional<URL>> cache = cache();
+        Optional<URL> url = cache.get(path);
+        if (url == null) {
+            try {
+                url = Optional.ofNullable(lookup(path));
+            } catch (IOException ex) {
+                // not cached, the root may recover
+                LOG.warn("Failed to look up resource: {}", path, ex);
+                return null;
+            }
+            cache.putIfAbsent(path, url);
+        }
+        return url.orElse(null);
+    }
+
+    /**
+     * Forgets all lookups, for when the roots' contents change.
+     */
+    public void clear() {
+        cache.clear();
+        synchronized (contextCaches) {
+            contextCaches.clear();
+        }
+    }
+
+    private URL lookup(String path) throws IOException {
+        for (Root root : roots) {
+            URL url = root.find(path);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, Optional<URL>> cache() {
+        ClassLoader ccl = contextDependent ? Thread.currentThread().getContextClassLoader() : null;
+        if (ccl == null) {
+            return cache;
+        }
+        synchronized (contextCaches) {
+            return contextCaches.computeIfAbsent(ccl, loader -> new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * @param url a resource
+     * @return the resource as a path, if it is a file or an entry of an open zip file system
+     */
+    static Path path(URL url) {
+        switch (url.getProtocol()) {
+            case "file":
+            case "jar":
+                try {
+                    return Paths.get(url.toURI());
+                } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException ex) {
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param url a resource
+     * @return a stream of its content, read through NIO where the resource is a path
+     * @throws IOException if the resource cannot be opened
+     */
+    public static InputStream open(URL url) throws IOException {
+        Path path = path(url);
+        return path != null ? Files.newInputStream(path) : url.openStream();
+    }
+
+    /**
+     * @param url a resource
+     * @return its content
+     * @throws IOException if the resource cannot be read
+     */
+    public static byte[] read(URL url) throws IOException {
+        Path path = path(url);
+        if (path != null) {
+            return Files.readAllBytes(path);
+        }
+        try (InputStream in = url.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static String stripSlash(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static final class ContextRoot implements Root {
+        @Override
+        public URL find(String path) {
+            ClassLoader ccl = Thread.currentThread().getContextClassLoader();
+            return ccl != null ? ccl.getResource(stripSlash(path)) : null;
+        }
+    }
+
+    private static final class ZipRoot implements Root {
+        private final Path zip;
+        private FileSystem fileSystem;
+
+        ZipRoot(Path zip) {
+            this.zip = Objects.requireNonNull(zip);
+        }
+
+        @Override
+        public URL find(String path) throws IOException {
+            Path entry = fileSystem().getPath("/" + stripSlash(path)).normalize();
+            return Files.isRegularFile(entry) ? entry.toUri().toURL() : null;
+        }
+
+        private synchronized FileSystem fileSystem() throws IOException {
+            if (fileSystem == null) {
+                fileSystem = FileSystems.newFileSystem(zip, (ClassLoader) null);
+            }
+            return fileSystem;
+        }
+    }
+}
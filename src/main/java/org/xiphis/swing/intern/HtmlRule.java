@@ -0,0 +1,95 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.steadystate.css.dom.CSSStyleRuleImpl;
+import org.jsoup.nodes.Element;
+import org.w3c.dom.css.CSSRule;
+import org.w3c.dom.css.CSSRuleList;
+import org.w3c.dom.css.CSSStyleSheet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One selector of a style rule together with the declarations it applies.
+ * A rule with a selector group such as {@code h1, h2} yields one entry per selector,
+ * all sharing the same declaration block.
+ */
+public final class HtmlRule {
+    private final HtmlSelector selector;
+    private final HtmlStyle style;
+    private final int order;
+
+    HtmlRule(HtmlSelector selector, HtmlStyle style, int order) {
+        this.selector = selector;
+        this.style = style;
+        this.order = order;
+    }
+
+    public static List<HtmlRule> compile(CSSStyleSheet sheet) {
+        if (sheet == null) {
+            return Collections.emptyList();
+        }
+        List<HtmlRule> rules = new ArrayList<>();
+        CSSRuleList cssRules = sheet.getCssRules();
+        for (int i = 0; i < cssRules.getLength(); i++) {
+            CSSRule rule = cssRules.item(i);
+            if (rule.getType() == CSSRule.STYLE_RULE && rule instanceof CSSStyleRuleImpl) {
+                CSSStyleRuleImpl styleRule = (CSSStyleRuleImpl) rule;
+                HtmlStyle style = HtmlStyle.of(styleRule.getStyle());
+                for (HtmlSelector selector : HtmlSelector.compile(styleRule.getSelectors())) {
+                    rules.add(new HtmlRule(selector, style, rules.size()));
+                }
+            }
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    public HtmlSelector selector() {
+        return selector;
+    }
+
+    public HtmlStyle style() {
+        return style;
+    }
+
+    public int order() {
+        return order;
+    }
+
+    public boolean matches(Element el) {
+        return selector.matches(el);
+    }
+
+    boolean matches(Element el, HtmlSiblings siblings) {
+        return selector.matches(el, siblings);
+    }
+}
@@ -0,0 +1,288 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Element;
+
+import javax.swing.*;
+import javax.swing.plaf.basic.ComboPopup;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The combo box of a {@code select} element. Its options are read from the element on
+ * demand: an option is only created when it is displayed or selected. Type-ahead uses a
+ * sorted index of the option texts, and the popup list has a fixed cell size taken from
+ * the longest of the first options, so opening it does not measure every option.
+ */
+final class HtmlSelect extends JComboBox<ComboBoxOption> {
+
+    // options measured for the fixed cell size
+    private static final int SAMPLE_OPTIONS = 100;
+
+    HtmlSelect(Element select) {
+        super(new Model(select));
+        setKeySelectionManager(new PrefixSelection());
+        setPrototypeDisplayValue(((Model) getModel()).prototype());
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        // JComboBox compares the selection with every option
+        if (getModel() instanceof Model) {
+            return ((Model) getModel()).selectedIndex();
+        }
+        return super.getSelectedIndex();
+    }
+
+    @Override
+    public void setPrototypeDisplayValue(ComboBoxOption prototypeDisplayValue) {
+        super.setPrototypeDisplayValue(prototypeDisplayValue);
+        configurePopup();
+    }
+
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        configurePopup();
+    }
+
+    private void configurePopup() {
+        ComboBoxOption prototype = getPrototypeDisplayValue();
+        if (prototype != null && getUI() != null && getUI().getAccessibleChildrenCount(this) > 0) {
+            Object popup = getUI().getAccessibleChild(this, 0);
+            if (popup instanceof ComboPopup) {
+                // fixes the cell width and height, so the list does not measure every option
+                ((ComboPopup) popup).getList().setPrototypeCellValue(prototype);
+            }
+        }
+    }
+
+    static ComboBoxOption option(Element el) {
+        String value = el.attr("value");
+        String text = el.text();
+        if (value == null || value.isBlank()) {
+            value = text;
+        }
+        return new ComboBoxOption(value, text);
+    }
+
+    static final class Model extends AbstractListModel<ComboBoxOption> implements ComboBoxModel<ComboBoxOption> {
+        private final Element[] elements;
+        private final ComboBoxOption[] options;
+        private Object selected;
+        private int selectedIndex = -1;
+        private int lastIndex = -1;
+
+        // the option indexes sorted by lower case text, built on the first key typed
+        private String[] keys;
+        private int[] sorted;
+
+        Model(Element select) {
+            List<Element> elements = new ArrayList<>();
+            for (Element el : select.children()) {
+                if ("option".equals(el.tagName())) {
+                    elements.add(el);
+                    if (selectedIndex < 0 && el.hasAttr("selected")) {
+                        selectedIndex = elements.size() - 1;
+                    }
+                }
+            }
+            this.elements = elements.toArray(new Element[0]);
+            this.options = new ComboBoxOption[this.elements.length];
+            if (selectedIndex < 0 && this.elements.length > 0) {
+                selectedIndex = 0;
+            }
+            if (selectedIndex >= 0) {
+                selected = getElementAt(selectedIndex);
+            }
+        }
+
+        ComboBoxOption prototype() {
+            ComboBoxOption prototype = null;
+            for (int i = 0; i < Math.min(elements.length, SAMPLE_OPTIONS); i++) {
+                ComboBoxOption option = getElementAt(i);
+                if (prototype == null || option.toString().length() > prototype.toString().length()) {
+                    prototype = option;
+                }
+            }
+            return prototype;
+        }
+
+        @Override
+        public int getSize() {
+            return elements.length;
+        }
+
+        @Override
+        public ComboBoxOption getElementAt(int index) {
+            if (index < 0 || index >= elements.length) {
+                return null;
+            }
+            ComboBoxOption option = options[index];
+            if (option == null) {
+                option = option(elements[index]);
+                options[index] = option;
+            }
+            lastIndex = index;
+            return option;
+        }
+
+        @Override
+        public void setSelectedItem(Object anItem) {
+            if (Objects.equals(selected, anItem)) {
+                return;
+            }
+            selected = anItem;
+            selectedIndex = indexOf(anItem);
+            fireContentsChanged(this, -1, -1);
+        }
+
+        @Override
+        public Object getSelectedItem() {
+            return selected;
+        }
+
+        int selectedIndex() {
+            return selectedIndex;
+        }
+
+        private int indexOf(Object item) {
+            if (item == null) {
+                return -1;
+            }
+            // JComboBox selects by index through getElementAt, so this is the usual case
+            if (lastIndex >= 0 && options[lastIndex] == item) {
+                return lastIndex;
+            }
+            for (int i = 0; i < elements.length; i++) {
+                if (item.equals(getElementAt(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @param prefix a lower case prefix
+         * @param from the first index to consider; matches before it are only used when
+         *             there are none after it
+         * @return the first option from {@code from} whose text starts with {@code prefix},
+         * or -1
+         */
+        int next(String prefix, int from) {
+            if (sorted == null) {
+                index();
+            }
+            int lo = lowerBound(prefix);
+            int match = -1;
+            int wrapped = -1;
+            for (int i = lo; i < sorted.length && keys[sorted[i]].startsWith(prefix); i++) {
+                int index = sorted[i];
+                if (index >= from) {
+                    if (match < 0 || index < match) {
+                        match = index;
+                    }
+                } else if (wrapped < 0 || index < wrapped) {
+                    wrapped = index;
+                }
+            }
+            return match >= 0 ? match : wrapped;
+        }
+
+        private void index() {
+            keys = new String[elements.length];
+            Integer[] order = new Integer[elements.length];
+            for (int i = 0; i < elements.length; i++) {
+                keys[i] = getElementAt(i).toString().toLowerCase(Locale.ROOT);
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(i -> keys[i]));
+            sorted = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = order[i];
+            }
+        }
+
+        private int lowerBound(String prefix) {
+            int lo = 0;
+            int hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[sorted[mid]].compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Selects the next option starting with the keys typed in quick succession; typing the
+     * same key again cycles through the options starting with it.
+     */
+    private static final class PrefixSelection implements KeySelectionManager {
+        private final long timeFactor;
+        private String prefix = "";
+        private long lastTime;
+
+        PrefixSelection() {
+            Object timeFactor = UIManager.get("ComboBox.timeFactor");
+            this.timeFactor = timeFactor instanceof Long ? (Long) timeFactor : 1000L;
+        }
+
+        @Override
+        public int selectionForKey(char aKey, ComboBoxModel<?> aModel) {
+            if (!(aModel instanceof Model)) {
+                return -1;
+            }
+            Model model = (Model) aModel;
+            String key = String.valueOf(aKey).toLowerCase(Locale.ROOT);
+            long time = EventQueue.getMostRecentEventTime();
+            boolean cycle;
+            if (time - lastTime < timeFactor && !prefix.equals(key)) {
+                prefix += key;
+                cycle = false;
+            } else {
+                cycle = prefix.equals(key) || time - lastTime >= timeFactor;
+                prefix = key;
+            }
+            lastTime = time;
+            int from = model.selectedIndex() + (cycle ? 1 : 0);
+            return model.next(prefix, Math.max(0, from));
+        }
+    }
+}
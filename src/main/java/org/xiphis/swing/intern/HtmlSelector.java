@@ -0,0 +1,480 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.steadystate.css.parser.CSSOMParser;
+import com.steadystate.css.parser.SACParserCSS3;
+import com.steadystate.css.parser.selectors.GeneralAdjacentSelectorImpl;
+import com.steadystate.css.parser.selectors.PrefixAttributeConditionImpl;
+import com.steadystate.css.parser.selectors.SubstringAttributeConditionImpl;
+import com.steadystate.css.parser.selectors.SuffixAttributeConditionImpl;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.css.sac.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable matcher compiled from a single SAC {@link Selector}.
+ * <p>
+ * Compilation happens once when the style sheet is parsed, so {@link #matches(Element)}
+ * does no string manipulation and allocates nothing.
+ */
+public final class HtmlSelector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlSelector.class);
+
+    private static final int NONE = 0;
+    private static final int DESCENDANT = 1;
+    private static final int CHILD = 2;
+    private static final int ADJACENT = 3;
+    private static final int SIBLING = 4;
+
+    private static final String[] NO_CLASSES = new String[0];
+    private static final Check[] NO_CONDITIONS = new Check[0];
+
+    private final String tag;
+    private final String id;
+    private final String[] classes;
+    private final Check[] conditions;
+    private final boolean never;
+    private final boolean siblings;
+
+    // the combinator and the compound to its left; matching starts at the subject
+    private final int combinator;
+    private final HtmlSelector next;
+
+    private final int specificity;
+
+    private HtmlSelector(Compound compound, int combinator, HtmlSelector next) {
+        this.tag = compound.tag;
+        this.id = compound.id;
+        this.classes = compound.classes.toArray(NO_CLASSES);
+        this.conditions = compound.conditions.toArray(NO_CONDITIONS);
+        this.never = compound.never;
+        this.combinator = combinator;
+        this.next = next;
+        this.siblings = compound.siblings || combinator == ADJACENT || combinator == SIBLING
+                || (next != null && next.siblings);
+        this.specificity = (id != null ? 1 << 16 : 0)
+                + ((classes.length + conditions.length) << 8)
+                + (tag != null ? 1 : 0)
+                + (next != null ? next.specificity : 0);
+    }
+
+    /**
+     * Compiles every selector of a selector list.
+     *
+     * @param selectors the parsed selector list
+     * @return the compiled selectors, in source order
+     */
+    public static List<HtmlSelector> compile(SelectorList selectors) {
+        List<HtmlSelector> result = new ArrayList<>(selectors.getLength());
+        for (int i = 0; i < selectors.getLength(); i++) {
+            result.add(compile(selectors.item(i)));
+        }
+        return result;
+    }
+
+    public static HtmlSelector compile(Selector selector) {
+        switch (selector.getSelectorType()) {
+            case Selector.SAC_DESCENDANT_SELECTOR:
+            case Selector.SAC_CHILD_SELECTOR: {
+                DescendantSelector descendant = (DescendantSelector) selector;
+                return new HtmlSelector(compound(descendant.getSimpleSelector()),
+                        selector.getSelectorType() == Selector.SAC_CHILD_SELECTOR ? CHILD : DESCENDANT,
+                        compile(descendant.getAncestorSelector()));
+            }
+            case Selector.SAC_DIRECT_ADJACENT_SELECTOR: {
+                SiblingSelector sibling = (SiblingSelector) selector;
+                return new HtmlSelector(compound(sibling.getSiblingSelector()),
+                        selector instanceof GeneralAdjacentSelectorImpl ? SIBLING : ADJACENT,
+                        compile(sibling.getSelector()));
+            }
+            default:
+                return new HtmlSelector(compound(selector), NONE, null);
+        }
+    }
+
+    /**
+     * A condition on an element other than its tag, id and classes. Siblings are read
+     * through {@code siblings} only.
+     */
+    private interface Check {
+        boolean test(Element el, HtmlSiblings siblings);
+    }
+
+    private static class Compound {
+        String tag;
+        String id;
+        final List<String> classes = new ArrayList<>();
+        final List<Check> conditions = new ArrayList<>();
+        boolean never;
+        // set by the structural pseudo classes, which look at the siblings of the element
+        boolean siblings;
+    }
+
+    private static Compound compound(Selector selector) {
+        Compound compound = new Compound();
+        switch (selector.getSelectorType()) {
+            case Selector.SAC_CONDITIONAL_SELECTOR: {
+                ConditionalSelector conditional = (ConditionalSelector) selector;
+                compound.tag = tagOf(conditional.getSimpleSelector());
+                condition(compound, conditional.getCondition());
+                break;
+            }
+            case Selector.SAC_ELEMENT_NODE_SELECTOR:
+                compound.tag = tagOf((SimpleSelector) selector);
+                break;
+            default:
+                LOG.debug("unsupported selector: {}", selector);
+                compound.never = true;
+                break;
+        }
+        return compound;
+    }
+
+    private static String tagOf(SimpleSelector selector) {
+        if (selector.getSelectorType() == Selector.SAC_ELEMENT_NODE_SELECTOR) {
+            String name = ((ElementSelector) selector).getLocalName();
+            if (name != null && !name.isEmpty() && !"*".equals(name)) {
+                return name.toLowerCase();
+            }
+        }
+        return null;
+    }
+
+    private static void condition(Compound compound, Condition condition) {
+        switch (condition.getConditionType()) {
+            case Condition.SAC_AND_CONDITION: {
+                CombinatorCondition and = (CombinatorCondition) condition;
+                condition(compound, and.getFirstCondition());
+                condition(compound, and.getSecondCondition());
+                break;
+            }
+            case Condition.SAC_ID_CONDITION:
+                if (compound.id != null && !compound.id.equals(((AttributeCondition) condition).getValue())) {
+                    compound.never = true;
+                }
+                compound.id = ((AttributeCondition) condition).getValue();
+                break;
+            case Condition.SAC_CLASS_CONDITION:
+                compound.classes.add(((AttributeCondition) condition).getValue());
+                break;
+            case Condition.SAC_ATTRIBUTE_CONDITION: {
+                AttributeCondition attribute = (AttributeCondition) condition;
+                String name = attribute.getLocalName();
+                String value = attribute.getValue();
+                if (!attribute.getSpecified() || value == null) {
+                    compound.conditions.add((el, siblings) -> el.hasAttr(name));
+                } else {
+                    boolean partial = condition instanceof PrefixAttributeConditionImpl
+                            || condition instanceof SuffixAttributeConditionImpl
+                            || condition instanceof SubstringAttributeConditionImpl;
+                    if (partial && value.isEmpty()) {
+                        // [a^=""], [a$=""] and [a*=""] match nothing
+                        compound.never = true;
+                    } else if (condition instanceof PrefixAttributeConditionImpl) {
+                        compound.conditions.add((el, siblings) -> el.attr(name).startsWith(value));
+                    } else if (condition instanceof SuffixAttributeConditionImpl) {
+                        compound.conditions.add((el, siblings) -> el.attr(name).endsWith(value));
+                    } else if (condition instanceof SubstringAttributeConditionImpl) {
+                        compound.conditions.add((el, siblings) -> el.attr(name).contains(value));
+                    } else {
+                        compound.conditions.add((el, siblings) -> el.hasAttr(name) && value.equals(el.attr(name)));
+                    }
+                }
+                break;
+            }
+            case Condition.SAC_ONE_OF_ATTRIBUTE_CONDITION: {
+                AttributeCondition attribute = (AttributeCondition) condition;
+                String name = attribute.getLocalName();
+                String value = attribute.getValue();
+                compound.conditions.add((el, siblings) -> containsWord(el.attr(name), value));
+                break;
+            }
+            case Condition.SAC_BEGIN_HYPHEN_ATTRIBUTE_CONDITION: {
+                AttributeCondition attribute = (AttributeCondition) condition;
+                String name = attribute.getLocalName();
+                String value = attribute.getValue();
+                compound.conditions.add((el, siblings) -> {
+                    String attr = el.attr(name);
+                    return attr.equals(value) || (attr.startsWith(value) && attr.charAt(value.length()) == '-');
+                });
+                break;
+            }
+            case Condition.SAC_PSEUDO_CLASS_CONDITION:
+                pseudoClass(compound, ((AttributeCondition) condition).getValue());
+                break;
+            default:
+                LOG.debug("unsupported condition: {}", condition);
+                compound.never = true;
+                break;
+        }
+    }
+
+    private static void pseudoClass(Compound compound, String pseudo) {
+        switch (pseudo) {
+            case "empty":
+                compound.conditions.add((el, siblings) -> el.childNodeSize() == 0);
+                return;
+            case "first-child":
+                compound.siblings = true;
+                compound.conditions.add((el, siblings) -> siblings.previous(el) == null);
+                return;
+            case "last-child":
+                compound.siblings = true;
+                compound.conditions.add((el, siblings) -> siblings.next(el) == null);
+                return;
+            case "only-child":
+                compound.siblings = true;
+                compound.conditions.add((el, siblings) -> siblings.previous(el) == null && siblings.next(el) == null);
+                return;
+            case "root":
+                compound.conditions.add((el, siblings) -> el.parent() == null || el.parent().parent() == null);
+                return;
+            default:
+                break;
+        }
+        int open = pseudo.indexOf('(');
+        if (open > 0 && pseudo.endsWith(")")) {
+            String name = pseudo.substring(0, open);
+            String argument = pseudo.substring(open + 1, pseudo.length() - 1).trim();
+            try {
+                switch (name) {
+                    case "not": {
+                        List<HtmlSelector> not = compile(parseSelectors(argument));
+                        for (HtmlSelector selector : not) {
+                            compound.siblings |= selector.siblings;
+                        }
+                        compound.conditions.add((el, siblings) -> {
+                            for (HtmlSelector selector : not) {
+                                if (selector.matches(el, siblings)) {
+                                    return false;
+                                }
+                            }
+                            return true;
+                        });
+                        return;
+                    }
+                    case "nth-child": {
+                        int[] ab = parseNth(argument);
+                        compound.siblings = true;
+                        compound.conditions.add((el, siblings) -> nth(ab, siblings.index(el) + 1));
+                        return;
+                    }
+                    case "nth-last-child": {
+                        int[] ab = parseNth(argument);
+                        compound.siblings = true;
+                        compound.conditions.add((el, siblings) -> el.parent() != null
+                                && nth(ab, siblings.count(el) - siblings.index(el)));
+                        return;
+                    }
+                    default:
+                        break;
+                }
+            } catch (Exception ex) {
+                LOG.warn("Unable to parse pseudo class: {}", pseudo, ex);
+                compound.never = true;
+                return;
+            }
+        }
+        LOG.debug("unsupported pseudo class: {}", pseudo);
+        compound.never = true;
+    }
+
+    private static SelectorList parseSelectors(String selector) throws java.io.IOException {
+        return new CSSOMParser(new SACParserCSS3()).parseSelectors(new InputSource(new StringReader(selector)));
+    }
+
+    /**
+     * Parses the {@code an+b} argument of the nth pseudo classes.
+     */
+    static int[] parseNth(String argument) {
+        argument = argument.replace(" ", "").toLowerCase();
+        switch (argument) {
+            case "odd":
+                return new int[] { 2, 1 };
+            case "even":
+                return new int[] { 2, 0 };
+            default:
+                break;
+        }
+        int n = argument.indexOf('n');
+        if (n < 0) {
+            return new int[] { 0, Integer.parseInt(argument) };
+        }
+        String a = argument.substring(0, n);
+        String b = argument.substring(n + 1);
+        int aValue = a.isEmpty() || "+".equals(a) ? 1 : "-".equals(a) ? -1 : Integer.parseInt(a);
+        int bValue = b.isEmpty() ? 0 : Integer.parseInt(b.startsWith("+") ? b.substring(1) : b);
+        return new int[] { aValue, bValue };
+    }
+
+    private static boolean nth(int[] ab, int index) {
+        int a = ab[0];
+        int diff = index - ab[1];
+        if (a == 0) {
+            return diff == 0;
+        }
+        return diff / a >= 0 && diff % a == 0;
+    }
+
+    private static boolean containsWord(String list, String word) {
+        int len = word.length();
+        int end = list.length() - len;
+        for (int i = 0; i <= end; i++) {
+            if ((i == 0 || Character.isWhitespace(list.charAt(i - 1)))
+                    && list.startsWith(word, i)
+                    && (i == end || Character.isWhitespace(list.charAt(i + len)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the id required of the subject element, or {@code null}
+     */
+    String subjectId() {
+        return id;
+    }
+
+    /**
+     * @return the first class required of the subject element, or {@code null}
+     */
+    String subjectClass() {
+        return classes.length > 0 ? classes[0] : null;
+    }
+
+    /**
+     * @return the tag name required of the subject element, or {@code null} for any
+     */
+    String subjectTag() {
+        return tag;
+    }
+
+    /**
+     * The CSS specificity of the selector, packed as {@code ids << 16 | classes << 8 | tags}
+     * so that specificities compare as plain integers. Attribute and pseudo-class
+     * conditions count as classes.
+     *
+     * @return the specificity
+     */
+    public int specificity() {
+        return specificity;
+    }
+
+    /**
+     * @return {@code true} if the selector can never match a component
+     */
+    boolean isNever() {
+        return never;
+    }
+
+    /**
+     * @return {@code true} if whether the selector matches depends on the siblings of an
+     * element, through a sibling combinator or a structural pseudo class
+     */
+    boolean dependsOnSiblings() {
+        return siblings;
+    }
+
+    private boolean matchesCompound(Element el, HtmlSiblings siblings) {
+        if (never) {
+            return false;
+        }
+        if (tag != null && !tag.equals(el.normalName())) {
+            return false;
+        }
+        if (id != null && !id.equals(el.id())) {
+            return false;
+        }
+        for (String cls : classes) {
+            if (!el.hasClass(cls)) {
+                return false;
+            }
+        }
+        for (Check condition : conditions) {
+            if (!condition.test(el, siblings)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests the selector against an element, using its ancestors and preceding siblings
+     * for any combinators.
+     *
+     * @param el the element
+     * @return {@code true} if the element is selected
+     */
+    public boolean matches(Element el) {
+        return matches(el, HtmlSiblings.LIVE);
+    }
+
+    /**
+     * Tests the selector against an element, reading its siblings from {@code siblings}.
+     *
+     * @param el the element
+     * @param siblings the siblings of the elements of the document
+     * @return {@code true} if the element is selected
+     */
+    boolean matches(Element el, HtmlSiblings siblings) {
+        if (el == null || !matchesCompound(el, siblings)) {
+            return false;
+        }
+        switch (combinator) {
+            case CHILD:
+                return next.matches(el.parent(), siblings);
+            case DESCENDANT:
+                for (Element p = el.parent(); p != null; p = p.parent()) {
+                    if (next.matches(p, siblings)) {
+                        return true;
+                    }
+                }
+                return false;
+            case ADJACENT:
+                return next.matches(siblings.previous(el), siblings);
+            case SIBLING:
+                for (Element s = siblings.previous(el); s != null; s = siblings.previous(s)) {
+                    if (next.matches(s, siblings)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Element;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Answers the sibling questions of selectors: the element before and after an element, and
+ * its position among the children of its parent.
+ * <p>
+ * jsoup caches the element children of a node behind a weak reference and rebuilds the list
+ * on demand, which is not safe while several threads match selectors against one document.
+ * A {@link #snapshot(Collection) snapshot} holds the sibling arrays strongly instead and
+ * never touches that cache, so it may be shared by the threads resolving styles in parallel.
+ */
+final class HtmlSiblings {
+
+    /**
+     * Reads the siblings from the document itself, for use on a single thread.
+     */
+    static final HtmlSiblings LIVE = new HtmlSiblings(null);
+
+    private final Map<Element, Position> positions;
+
+    private HtmlSiblings(Map<Element, Position> positions) {
+        this.positions = positions;
+    }
+
+    private static final class Position {
+        final Element[] siblings;
+        final int index;
+
+        Position(Element[] siblings, int index) {
+            this.siblings = siblings;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Records the siblings of the children of {@code elements}. Must be called on the only
+     * thread accessing the document, and the document must not change while in use.
+     *
+     * @param elements the parents, usually every element of the document
+     * @return the snapshot
+     */
+    static HtmlSiblings snapshot(Collection<Element> elements) {
+        Map<Element, Position> positions = new IdentityHashMap<>(elements.size() * 4 / 3 + 1);
+        for (Element parent : elements) {
+            Element[] children = parent.children().toArray(new Element[0]);
+            for (int i = 0; i < children.length; i++) {
+                positions.put(children[i], new Position(children, i));
+            }
+        }
+        return new HtmlSiblings(positions);
+    }
+
+    Element previous(Element el) {
+        if (positions == null) {
+            return el.previousElementSibling();
+        }
+        Position position = positions.get(el);
+        return position != null && position.index > 0 ? position.siblings[position.index - 1] : null;
+    }
+
+    Element next(Element el) {
+        if (positions == null) {
+            return el.nextElementSibling();
+        }
+        Position position = positions.get(el);
+        return position != null && position.index + 1 < position.siblings.length
+                ? position.siblings[position.index + 1] : null;
+    }
+
+    /**
+     * @param el the element
+     * @return the index of the element among the element children of its parent
+     */
+    int index(Element el) {
+        if (positions == null) {
+            return el.elementSiblingIndex();
+        }
+        Position position = positions.get(el);
+        return position != null ? position.index : 0;
+    }
+
+    /**
+     * @param el an element with a parent
+     * @return the number of element children of its parent
+     */
+    int count(Element el) {
+        if (positions == null) {
+            return el.parent().childrenSize();
+        }
+        Position position = positions.get(el);
+        return position != null ? position.siblings.length : 1;
+    }
+}
@@ -28,10 +28,24 @@ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.css.CSSStyleDeclaration;
+
+import javax.swing.*;
+import java.awt.*;
 import java.awt.font.TextAttribute;
-import java.util.Collections;
-import java.util.Map;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A CSS declaration block compiled into typed operations.
+ * <p>
+ * Property values are parsed once, when the block is compiled; unsupported properties
+ * and values are reported then and dropped. The operations only fold the values into an
+ * {@link HtmlComputedStyle}, which is applied to the component once the whole cascade is known.
+ */
 public final class HtmlStyle {
     static final Map<TextAttribute, String> TEXT_ATTRIBUTE_MONOSPACE = Collections.singletonMap(TextAttribute.FAMILY, "Monospaced");
     static final Map<TextAttribute, Float> TEXT_ATTRIBUTE_WEIGHT_BOLD = Collections.singletonMap(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD);
@@ -42,6 +56,296 @@ public final class HtmlStyle {
     static final Map<TextAttribute, Boolean> TEXT_ATTRIBUTE_STRIKETHROUGH_ON = Collections.singletonMap(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON);
     static final Map<TextAttribute, Integer> TEXT_ATTRIBUTE_UNDERLINE_ON = Collections.singletonMap(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
 
-    private HtmlStyle() {
+    private static final Map<TextAttribute, Float> TEXT_ATTRIBUTE_WEIGHT_REGULAR = Collections.singletonMap(TextAttribute.WEIGHT, TextAttribute.WEIGHT_REGULAR);
+    private static final Map<TextAttribute, Float> TEXT_ATTRIBUTE_POSTURE_REGULAR = Collections.singletonMap(TextAttribute.POSTURE, TextAttribute.POSTURE_REGULAR);
+
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlStyle.class);
+
+    /** CSS reference pixels per inch, used when there is no screen to ask */
+    private static final int DEFAULT_RESOLUTION = 96;
+    private static volatile int screenResolution;
+
+    private static final Map<String, Optional<String>> FONT_FAMILIES = new ConcurrentHashMap<>();
+
+    static final HtmlStyle EMPTY = new HtmlStyle(null, new Op[0]);
+
+    /**
+     * A single pre-parsed style operation.
+     */
+    interface Op {
+        void apply(HtmlComputedStyle style);
+    }
+
+    private final CSSStyleDeclaration declaration;
+    private final Op[] ops;
+
+    private HtmlStyle(CSSStyleDeclaration declaration, Op[] ops) {
+        this.declaration = declaration;
+        this.ops = ops;
+    }
+
+    /**
+     * Compiles a declaration block.
+     *
+     * @param declaration the parsed declarations
+     * @return the compiled style
+     */
+    public static HtmlStyle of(CSSStyleDeclaration declaration) {
+        if (declaration == null) {
+            return EMPTY;
+        }
+        List<Op> ops = new ArrayList<>(declaration.getLength());
+        for (int i = 0; i < declaration.getLength(); i++) {
+            String property = declaration.item(i);
+            Op op = compile(property, declaration.getPropertyValue(property));
+            if (op != null) {
+                ops.add(op);
+            }
+        }
+        return new HtmlStyle(declaration, ops.toArray(new Op[0]));
+    }
+
+    public CSSStyleDeclaration declaration() {
+        return declaration;
+    }
+
+    public boolean isEmpty() {
+        return ops.length == 0;
+    }
+
+    void apply(HtmlComputedStyle style) {
+        for (Op op : ops) {
+            op.apply(style);
+        }
+    }
+
+    private static Op compile(String property, String value) {
+        switch (property) {
+            case "float":
+                switch (value) {
+                    case "left":
+                        return style -> style.alignmentX = JComponent.LEFT_ALIGNMENT;
+                    case "center":
+                        return style -> style.alignmentX = JComponent.CENTER_ALIGNMENT;
+                    case "right":
+                        return style -> style.alignmentX = JComponent.RIGHT_ALIGNMENT;
+                    default:
+                        LOG.info("unknown alignment: {}", value);
+                        return null;
+                }
+            case "overflow":
+                switch (value) {
+                    case "hidden":
+                        return scrollPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+                    case "scroll":
+                        return scrollPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_ALWAYS);
+                    case "auto":
+                        return scrollPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+                    default:
+                        LOG.info("unknown overflow: {}", value);
+                        return null;
+                }
+            case "overflow-x":
+                switch (value) {
+                    case "hidden":
+                        return scrollPolicy(-1, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+                    case "scroll":
+                        return scrollPolicy(-1, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_ALWAYS);
+                    case "auto":
+                        return scrollPolicy(-1, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+                    default:
+                        LOG.info("unknown overflow-x: {}", value);
+                        return null;
+                }
+            case "overflow-y":
+                switch (value) {
+                    case "hidden":
+                        return scrollPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER, -1);
+                    case "scroll":
+                        return scrollPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS, -1);
+                    case "auto":
+                        return scrollPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, -1);
+                    default:
+                        LOG.info("unknown overflow-y: {}", value);
+                        return null;
+                }
+            case "margin":
+            case "padding":
+                LOG.debug("{}: {}", property, value);
+                return null;
+            case "border":
+                if ("0".equals(value)) {
+                    return style -> style.border = BorderFactory.createEmptyBorder();
+                }
+                LOG.info("border: {}", value);
+                return null;
+            case "outline":
+            case "line-height":
+                LOG.debug("not supported: {}", property);
+                return null;
+            case "vertical-align":
+                if (!"baseline".equals(value)) {
+                    LOG.debug("vertical-align not supported: {}", value);
+                }
+                return null;
+            case "background":
+                if (!"transparent".equals(value)) {
+                    LOG.info("unhandled background: {}", value);
+                }
+                return null;
+            case "background-color": {
+                Color color = HtmlColor.getColor(value);
+                return color != null ? style -> style.background = color : null;
+            }
+            case "color": {
+                Color color = HtmlColor.getColor(value);
+                return color != null ? style -> style.foreground = color : null;
+            }
+            case "font-family": {
+                for (String family : value.split(",")) {
+                    Optional<String> available = fontFamily(family);
+                    if (available.isPresent()) {
+                        return deriveFont(Collections.singletonMap(TextAttribute.FAMILY, available.get()));
+                    }
+                }
+                LOG.info("no font available for: {}", value);
+                return null;
+            }
+            case "font-size":
+                return fontSize(value);
+            case "font-style":
+                switch (value) {
+                    case "normal":
+                        return deriveFont(TEXT_ATTRIBUTE_POSTURE_REGULAR);
+                    case "italic":
+                    case "oblique":
+                        return deriveFont(TEXT_ATTRIBUTE_POSTURE_OBLIQUE);
+                    default:
+                        try {
+                            return deriveFont(Collections.singletonMap(TextAttribute.POSTURE, Float.parseFloat(value)));
+                        } catch (Exception ex) {
+                            LOG.warn("unknown font-style: {}", value);
+                            return null;
+                        }
+                }
+            case "font-weight":
+                switch (value) {
+                    case "normal":
+                        return deriveFont(TEXT_ATTRIBUTE_WEIGHT_REGULAR);
+                    case "bold":
+                        return deriveFont(TEXT_ATTRIBUTE_WEIGHT_BOLD);
+                    case "bolder":
+                        return deriveFont(TEXT_ATTRIBUTE_WEIGHT_EXTRABOLD);
+                    default:
+                        try {
+                            return deriveFont(Collections.singletonMap(TextAttribute.WEIGHT, Float.parseFloat(value)));
+                        } catch (Exception ex) {
+                            LOG.warn("unknown font-weight: {}", value);
+                            return null;
+                        }
+                }
+            case "text-decoration":
+                switch (value) {
+                    case "line-through":
+                        return deriveFont(TEXT_ATTRIBUTE_STRIKETHROUGH_ON);
+                    default:
+                        LOG.warn("unknown text-decoration: {}", value);
+                        return null;
+                }
+            default:
+                LOG.warn("unknown style attribute: {} {}", property, value);
+                return null;
+        }
+    }
+
+    private static Op scrollPolicy(int vertical, int horizontal) {
+        return style -> {
+            if (vertical >= 0) {
+                style.verticalScrollBarPolicy = vertical;
+            }
+            if (horizontal >= 0) {
+                style.horizontalScrollBarPolicy = horizontal;
+            }
+        };
+    }
+
+    private static Op deriveFont(Map<TextAttribute, ?> attributes) {
+        return style -> attributes.forEach(style::putFontAttribute);
+    }
+
+    private static Op fontSize(String size) {
+        try {
+            if (size.endsWith("%")) {
+                float scale = Float.parseFloat(size.substring(0, size.length() - 1)) / 100f;
+                if (scale == 1f) {
+                    return null;
+                }
+                return style -> {
+                    if (!Float.isNaN(style.fontSize)) {
+                        style.fontSize *= scale;
+                    } else {
+                        style.fontScale = Float.isNaN(style.fontScale) ? scale : scale * style.fontScale;
+                    }
+                };
+            }
+            float pt;
+            if (size.endsWith("px")) {
+                pt = pixelsToPoints(Float.parseFloat(size.substring(0, size.length() - 2)));
+            } else if (size.endsWith("em")) {
+                pt = pixelsToPoints(Float.parseFloat(size.substring(0, size.length() - 2)) * 16f);
+            } else if (size.endsWith("pt")) {
+                pt = Float.parseFloat(size.substring(0, size.length() - 2));
+            } else {
+                pt = Float.parseFloat(size);
+            }
+            return style -> {
+                style.fontSize = pt;
+                style.fontScale = Float.NaN;
+            };
+        } catch (Exception ex) {
+            LOG.warn("Unable to parse font-size: {}", size, ex);
+            return null;
+        }
+    }
+
+    static float pixelsToPoints(float px) {
+        return 72f * px / screenResolution();
+    }
+
+    private static int screenResolution() {
+        int resolution = screenResolution;
+        if (resolution == 0) {
+            try {
+                resolution = Toolkit.getDefaultToolkit().getScreenResolution();
+            } catch (HeadlessException ex) {
+                resolution = DEFAULT_RESOLUTION;
+            }
+            screenResolution = resolution;
+        }
+        return resolution;
+    }
+
+    /**
+     * Maps a CSS font family to an installed or logical Java font family, if there is one.
+     */
+    private static Optional<String> fontFamily(String family) {
+        family = family.trim();
+        if (family.length() > 1 && (family.charAt(0) == '"' || family.charAt(0) == '\'')
+                && family.charAt(family.length() - 1) == family.charAt(0)) {
+            family = family.substring(1, family.length() - 1);
+        }
+        switch (family.toLowerCase()) {
+            case "serif":
+                return Optional.of(Font.SERIF);
+            case "sans-serif":
+                return Optional.of(Font.SANS_SERIF);
+            case "monospace":
+                return Optional.of(Font.MONOSPACED);
+            default:
+                return FONT_FAMILIES.computeIfAbsent(family, name -> {
+                    Font font = new Font(Collections.singletonMap(TextAttribute.FAMILY, name));
+                    return name.equals(font.getFamily()) ? Optional.of(name) : Optional.empty();
+                });
+        }
     }
 }
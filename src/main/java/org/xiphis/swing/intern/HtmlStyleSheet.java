@@ -0,0 +1,294 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.steadystate.css.parser.CSSOMParser;
+import com.steadystate.css.parser.SACParserCSS3;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.css.sac.CSSException;
+import org.w3c.css.sac.CSSParseException;
+import org.w3c.css.sac.ErrorHandler;
+import org.w3c.css.sac.InputSource;
+import org.w3c.dom.css.CSSStyleSheet;
+
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A parsed style sheet whose rules are bucketed by the right-most compound selector,
+ * so an element only has to test the rules that could possibly select it.
+ * <p>
+ * Each rule is filed under the most selective key of its subject: the id, else its
+ * first class, else its tag name, else the universal bucket.
+ * <p>
+ * Instances are immutable once built. Style sheets loaded from a URL are shared by every
+ * {@link HtmlContext} in the process through {@link #forUrl(URL)}.
+ */
+public final class HtmlStyleSheet {
+    private static final Logger LOG = LoggerFactory.getLogger(HtmlStyleSheet.class);
+    private static final HtmlRule[] NO_RULES = new HtmlRule[0];
+    private static final Comparator<HtmlRule> SOURCE_ORDER = Comparator.comparingInt(HtmlRule::order);
+
+    private final CSSStyleSheet sheet;
+    private final List<HtmlRule> rules;
+    private final Map<String, HtmlRule[]> byId;
+    private final Map<String, HtmlRule[]> byClass;
+    private final Map<String, HtmlRule[]> byTag;
+    private final HtmlRule[] universal;
+    private final boolean siblings;
+
+    public HtmlStyleSheet(CSSStyleSheet sheet) {
+        this.sheet = sheet;
+        this.rules = HtmlRule.compile(sheet);
+
+        Map<String, List<HtmlRule>> ids = new HashMap<>();
+        Map<String, List<HtmlRule>> classes = new HashMap<>();
+        Map<String, List<HtmlRule>> tags = new HashMap<>();
+        List<HtmlRule> any = new ArrayList<>();
+        boolean siblings = false;
+
+        for (HtmlRule rule : rules) {
+            HtmlSelector selector = rule.selector();
+            if (selector.isNever()) {
+                continue;
+            }
+            siblings |= selector.dependsOnSiblings();
+            if (selector.subjectId() != null) {
+                ids.computeIfAbsent(selector.subjectId(), key -> new ArrayList<>()).add(rule);
+            } else if (selector.subjectClass() != null) {
+                classes.computeIfAbsent(selector.subjectClass().toLowerCase(), key -> new ArrayList<>()).add(rule);
+            } else if (selector.subjectTag() != null) {
+                tags.computeIfAbsent(selector.subjectTag(), key -> new ArrayList<>()).add(rule);
+            } else {
+                any.add(rule);
+            }
+        }
+
+        byId = freeze(ids);
+        byClass = freeze(classes);
+        byTag = freeze(tags);
+        universal = any.toArray(NO_RULES);
+        this.siblings = siblings;
+    }
+
+    private static final class Cached {
+        final long lastModified;
+        final HtmlStyleSheet sheet;
+
+        Cached(long lastModified, HtmlStyleSheet sheet) {
+            this.lastModified = lastModified;
+            this.sheet = sheet;
+        }
+    }
+
+    private static final Map<String, Cached> CACHE = new ConcurrentHashMap<>();
+
+    private static final ErrorHandler ERROR_HANDLER = new ErrorHandler() {
+        @Override
+        public void warning(CSSParseException e) throws CSSException {
+            LOG.warn("WARN: {}", e.getLocalizedMessage(), e);
+        }
+
+        @Override
+        public void error(CSSParseException e) throws CSSException {
+            LOG.error("ERROR: {}", e.getLocalizedMessage(), e);
+        }
+
+        @Override
+        public void fatalError(CSSParseException e) throws CSSException {
+            LOG.error("FATAL: {}", e.getLocalizedMessage(), e);
+        }
+    };
+
+    static CSSOMParser newParser() {
+        CSSOMParser parser = new CSSOMParser(new SACParserCSS3());
+        parser.setErrorHandler(ERROR_HANDLER);
+        return parser;
+    }
+
+    /**
+     * Parses style sheet text.
+     *
+     * @param css the style sheet source
+     * @return the parsed and indexed style sheet
+     * @throws IOException if the source cannot be read
+     */
+    public static HtmlStyleSheet parse(String css) throws IOException {
+        return parse(new StringReader(css), null);
+    }
+
+    private static HtmlStyleSheet parse(Reader reader, String href) throws IOException {
+        return new HtmlStyleSheet(newParser().parseStyleSheet(new InputSource(reader), null, href));
+    }
+
+    /**
+     * Returns the shared style sheet for a resource, parsing it on first use or when the
+     * resource reports a newer modification time than the cached copy.
+     *
+     * @param url the style sheet resource
+     * @return the shared, immutable style sheet
+     * @throws IOException if the resource cannot be read
+     */
+    public static HtmlStyleSheet forUrl(URL url) throws IOException {
+        String key = url.toExternalForm();
+        long lastModified = lastModified(url);
+        Cached cached = CACHE.get(key);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.sheet;
+        }
+        // read and parse outside the map; a concurrent load of the same version wins the merge
+        HtmlStyleSheet sheet;
+        try (Reader reader = new StringReader(new String(HtmlResources.read(url), StandardCharsets.UTF_8))) {
+            LOG.debug("Parsing style sheet {}", key);
+            sheet = parse(reader, key);
+        }
+        return CACHE.merge(key, new Cached(lastModified, sheet),
+                (current, parsed) -> current.lastModified == parsed.lastModified ? current : parsed).sheet;
+    }
+
+    private static long lastModified(URL url) {
+        try {
+            Path path = HtmlResources.path(url);
+            if (path != null) {
+                return Files.getLastModifiedTime(path).toMillis();
+            }
+            URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                // reads the entry from the (cached) jar directory without opening a stream
+                return ((JarURLConnection) connection).getJarEntry().getTime();
+            }
+            return connection.getLastModified();
+        } catch (Exception ex) {
+            LOG.debug("No modification time for {}", url, ex);
+            return 0L;
+        }
+    }
+
+    private static Map<String, HtmlRule[]> freeze(Map<String, List<HtmlRule>> buckets) {
+        Map<String, HtmlRule[]> result = new HashMap<>(buckets.size() * 4 / 3 + 1);
+        buckets.forEach((key, list) -> result.put(key, list.toArray(NO_RULES)));
+        return result;
+    }
+
+    public CSSStyleSheet cssStyleSheet() {
+        return sheet;
+    }
+
+    /**
+     * @return every compiled rule, in source order
+     */
+    public List<HtmlRule> rules() {
+        return rules;
+    }
+
+    /**
+     * @return {@code true} if a rule selects elements by their siblings
+     */
+    boolean dependsOnSiblings() {
+        return siblings;
+    }
+
+    /**
+     * Finds the rules selecting an element.
+     *
+     * @param el the element
+     * @param matched receives the matching rules, in source order
+     */
+    public void match(Element el, List<HtmlRule> matched) {
+        match(el, matched, HtmlSiblings.LIVE);
+    }
+
+    /**
+     * Finds the rules selecting an element, reading its siblings from {@code siblings}.
+     *
+     * @param el the element
+     * @param matched receives the matching rules, in source order
+     * @param siblings the siblings of the elements of the document
+     */
+    void match(Element el, List<HtmlRule> matched, HtmlSiblings siblings) {
+        int start = matched.size();
+
+        if (!byId.isEmpty()) {
+            String id = el.id();
+            if (!id.isEmpty()) {
+                addAll(matched, byId.get(id));
+            }
+        }
+        if (!byClass.isEmpty()) {
+            String className = el.className();
+            int len = className.length();
+            for (int i = 0; i < len; ) {
+                while (i < len && Character.isWhitespace(className.charAt(i))) {
+                    i++;
+                }
+                int begin = i;
+                while (i < len && !Character.isWhitespace(className.charAt(i))) {
+                    i++;
+                }
+                if (begin < i) {
+                    addAll(matched, byClass.get(className.substring(begin, i).toLowerCase()));
+                }
+            }
+        }
+        addAll(matched, byTag.get(el.normalName()));
+        addAll(matched, universal);
+
+        int end = matched.size();
+        if (end - start > 1) {
+            matched.subList(start, end).sort(SOURCE_ORDER);
+        }
+
+        // drop the candidates that do not match, and repeated classes on the element
+        int out = start;
+        HtmlRule prev = null;
+        for (int i = start; i < end; i++) {
+            HtmlRule rule = matched.get(i);
+            if (rule != prev && rule.matches(el, siblings)) {
+                matched.set(out++, rule);
+            }
+            prev = rule;
+        }
+        matched.subList(out, end).clear();
+    }
+
+    private static void addAll(List<HtmlRule> list, HtmlRule[] rules) {
+        if (rules != null) {
+            Collections.addAll(list, rules);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Element;
+
+import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.plaf.basic.BasicTableUI;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableColumn;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders a large table as a single component. The cells are the table's own {@code th} and
+ * {@code td} elements, painted by one recycled renderer, so only the rows intersecting the
+ * clip are touched when painting. Spanning cells are painted across all the cells they cover.
+ * <p>
+ * Cells show their text in the computed style of their element; see
+ * {@link HtmlContext#setVirtualTableRows(int)} for which tables are rendered this way.
+ */
+final class HtmlTable extends JTable {
+
+    // rows measured for the column widths and the row height
+    private static final int SAMPLE_ROWS = 200;
+
+    private final HtmlContext context;
+    private final Model model;
+    private boolean measured;
+
+    HtmlTable(HtmlContext context, Element table, Border border) {
+        super(new Model(rows(table)));
+        this.context = context;
+        this.model = (Model) getModel();
+
+        setDefaultRenderer(Object.class, new Renderer(border));
+        setTableHeader(null);
+        setShowGrid(false);
+        setIntercellSpacing(new Dimension(0, 0));
+        setRowSelectionAllowed(false);
+        setFocusable(false);
+        setOpaque(false);
+        setAutoResizeMode(AUTO_RESIZE_ALL_COLUMNS);
+    }
+
+    /**
+     * @param context the context
+     * @param table the table element
+     * @return {@code true} if the table is large enough to render virtually and its cells
+     * hold only plain text
+     */
+    static boolean isVirtual(HtmlContext context, Element table) {
+        List<Element> rows = rows(table);
+        if (rows.size() < context.getVirtualTableRows()) {
+            return false;
+        }
+        for (Element row : rows) {
+            for (Element cell : row.children()) {
+                if (!cell.children().isEmpty() || !HtmlLazyPanel.isStatic(cell)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<Element> rows(Element table) {
+        List<Element> rows = new ArrayList<>();
+        for (String section : new String[] {"thead", "tbody", "tfoot"}) {
+            for (Element group : table.children()) {
+                if (section.equals(group.tagName())) {
+                    for (Element row : group.children()) {
+                        if ("tr".equals(row.tagName())) {
+                            rows.add(row);
+                        }
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void updateUI() {
+        setUI(new UI());
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (!measured) {
+            measured = true;
+            measure();
+        }
+        return super.getPreferredSize();
+    }
+
+    // sizes the columns and rows from the cells of the first rows
+    private void measure() {
+        int rows = Math.min(getRowCount(), SAMPLE_ROWS);
+        int[] widths = new int[getColumnCount()];
+        int height = 1;
+        List<Cell> spanned = new ArrayList<>();
+        List<Integer> spannedWidths = new ArrayList<>();
+        Renderer renderer = (Renderer) getDefaultRenderer(Object.class);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < widths.length; column++) {
+                Cell cell = model.cell(row, column);
+                if (cell == null || cell.row != row || cell.column != column) {
+                    continue;
+                }
+                Dimension size = renderer.getTableCellRendererComponent(this, cell, false, false, row, column)
+                        .getPreferredSize();
+                if (cell.columns == 1) {
+                    widths[column] = Math.max(widths[column], size.width);
+                } else {
+                    spanned.add(cell);
+                    spannedWidths.add(size.width);
+                }
+                if (cell.rows == 1) {
+                    height = Math.max(height, size.height);
+                }
+            }
+        }
+        // spanning cells widen the columns they cover evenly where these are too narrow
+        for (int i = 0; i < spanned.size(); i++) {
+            Cell cell = spanned.get(i);
+            int end = Math.min(cell.column + cell.columns, widths.length);
+            int missing = spannedWidths.get(i);
+            for (int column = cell.column; column < end; column++) {
+                missing -= widths[column];
+            }
+            for (int column = cell.column; missing > 0 && column < end; column++) {
+                int share = (missing + end - column - 1) / (end - column);
+                widths[column] += share;
+                missing -= share;
+            }
+        }
+        for (int column = 0; column < widths.length; column++) {
+            TableColumn tableColumn = getColumnModel().getColumn(column);
+            tableColumn.setPreferredWidth(widths[column]);
+            tableColumn.setWidth(widths[column]);
+        }
+        setRowHeight(height);
+    }
+
+    @Override
+    public Rectangle getCellRect(int row, int column, boolean includeSpacing) {
+        Cell cell = model.cell(row, column);
+        if (cell == null || (cell.rows == 1 && cell.columns == 1)) {
+            return super.getCellRect(row, column, includeSpacing);
+        }
+        Rectangle rect = super.getCellRect(cell.row, cell.column, includeSpacing);
+        return rect.union(super.getCellRect(cell.row + cell.rows - 1, cell.column + cell.columns - 1, includeSpacing));
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        Cell cell = model.cell(rowAtPoint(event.getPoint()), columnAtPoint(event.getPoint()));
+        return cell != null && cell.element.hasAttr("title") ? cell.element.attr("title") : null;
+    }
+
+    /**
+     * Paints each cell once over its whole span. {@link BasicTableUI} takes the height of a
+     * row from its first visible cell, which does not hold for spanning cells.
+     */
+    private static final class UI extends BasicTableUI {
+        @Override
+        public void paint(Graphics g, JComponent c) {
+            Rectangle clip = g.getClipBounds();
+            if (table.getRowCount() == 0 || table.getColumnCount() == 0 || clip == null) {
+                return;
+            }
+            Model model = (Model) table.getModel();
+            Point first = clip.getLocation();
+            Point last = new Point(clip.x + clip.width - 1, clip.y + clip.height - 1);
+            int rMin = Math.max(0, table.rowAtPoint(first));
+            int rMax = table.rowAtPoint(last);
+            if (rMax < 0) {
+                rMax = table.getRowCount() - 1;
+            }
+            int cMin = Math.max(0, table.columnAtPoint(first));
+            int cMax = table.columnAtPoint(last);
+            if (cMax < 0) {
+                cMax = table.getColumnCount() - 1;
+            }
+            for (int row = rMin; row <= rMax; row++) {
+                for (int column = cMin; column <= cMax; column++) {
+                    Cell cell = model.cell(row, column);
+                    // a span is painted from its first cell, or its first visible one
+                    if (cell == null
+                            || (cell.row != row && row != rMin)
+                            || (cell.column != column && column != cMin)) {
+                        continue;
+                    }
+                    Rectangle rect = table.getCellRect(row, column, false);
+                    Component component = table.prepareRenderer(table.getCellRenderer(row, column), row, column);
+                    rendererPane.paintComponent(g, component, table, rect.x, rect.y, rect.width, rect.height, true);
+                }
+            }
+            rendererPane.removeAll();
+        }
+    }
+
+    /**
+     * A {@code th} or {@code td} placed on the grid. Cells covered by a span refer to the
+     * spanning cell.
+     */
+    static final class Cell {
+        final Element element;
+        final int row;
+        final int column;
+        final int rows;
+        final int columns;
+
+        // resolved when first painted
+        String text;
+        Font font;
+        Color foreground;
+        Color background;
+        int alignment;
+
+        Cell(Element element, int row, int column, int rows, int columns) {
+            this.element = element;
+            this.row = row;
+            this.column = column;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        void resolve(HtmlContext context, Component parent) {
+            HtmlComputedStyle style = context.computedStyle(element);
+            text = element.text();
+            font = style.deriveFont(parent.getFont());
+            foreground = style.foreground() != null ? style.foreground() : parent.getForeground();
+            background = style.background();
+            float alignmentX = style.alignmentX;
+            if (Float.isNaN(alignmentX)) {
+                alignment = SwingConstants.LEADING;
+            } else if (alignmentX < 0.25f) {
+                alignment = SwingConstants.LEFT;
+            } else if (alignmentX > 0.75f) {
+                alignment = SwingConstants.RIGHT;
+            } else {
+                alignment = SwingConstants.CENTER;
+            }
+        }
+    }
+
+    static final class Model extends AbstractTableModel {
+        private final Cell[][] grid;
+        private final int columns;
+
+        Model(List<Element> rows) {
+            Cell[][] grid = new Cell[rows.size()][];
+            Arrays.fill(grid, new Cell[0]);
+            int columns = 0;
+            for (int y = 0; y < grid.length; y++) {
+                int x = 0;
+                for (Element el : rows.get(y).children()) {
+                    switch (el.tagName()) {
+                        case "th":
+                        case "td":
+                            break;
+                        default:
+                            continue;
+                    }
+                    while (x < grid[y].length && grid[y][x] != null) {
+                        x++;
+                    }
+                    int rowSpan = Math.min(span(el, "rowspan"), grid.length - y);
+                    int columnSpan = span(el, "colspan");
+                    Cell cell = new Cell(el, y, x, rowSpan, columnSpan);
+                    for (int r = y; r < y + rowSpan; r++) {
+                        if (grid[r].length < x + columnSpan) {
+                            grid[r] = Arrays.copyOf(grid[r], x + columnSpan);
+                        }
+                        Arrays.fill(grid[r], x, x + columnSpan, cell);
+                    }
+                    x += columnSpan;
+                }
+                columns = Math.max(columns, grid[y].length);
+            }
+            this.grid = grid;
+            this.columns = columns;
+        }
+
+        private static int span(Element el, String attr) {
+            if (el.hasAttr(attr)) {
+                try {
+                    return Math.max(1, Integer.parseUnsignedInt(el.attr(attr)));
+                } catch (NumberFormatException ex) {
+                    return 1;
+                }
+            }
+            return 1;
+        }
+
+        Cell cell(int row, int column) {
+            if (row < 0 || row >= grid.length || column < 0 || column >= grid[row].length) {
+                return null;
+            }
+            return grid[row][column];
+        }
+
+        @Override
+        public int getRowCount() {
+            return grid.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            return cell(rowIndex, columnIndex);
+        }
+    }
+
+    private final class Renderer extends DefaultTableCellRenderer {
+        private final Border border;
+
+        Renderer(Border border) {
+            this.border = border;
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            Cell cell = (Cell) value;
+            if (cell == null) {
+                setText(null);
+                setBorder(null);
+                setOpaque(false);
+                return this;
+            }
+            if (cell.text == null) {
+                Container parent = HtmlTable.this.getParent();
+                cell.resolve(context, parent != null ? parent : HtmlTable.this);
+            }
+            setText(cell.text);
+            setFont(cell.font);
+            setForeground(cell.foreground);
+            setBackground(cell.background);
+            setOpaque(cell.background != null);
+            setHorizontalAlignment(cell.alignment);
+            setBorder(border);
+            return this;
+        }
+    }
+}
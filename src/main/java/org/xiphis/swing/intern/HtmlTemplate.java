@@ -0,0 +1,133 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A document parsed and styled once, from which any number of {@link HtmlContext}s,
+ * and so panels, frames and dialogs, can be instantiated.
+ * <p>
+ * The template holds the parsed document, its style sheets and the computed style of every
+ * element. Instantiating it only creates components; nothing is parsed or matched again.
+ * Templates are immutable and may be shared between threads. The shared document must not
+ * be modified.
+ */
+public final class HtmlTemplate {
+
+    private final Document document;
+    private final boolean partial;
+    private final List<HtmlStyleSheet> styleSheets;
+    private final HtmlResources resources;
+    private final Map<Element, HtmlComputedStyle> computedStyles;
+
+    private HtmlTemplate(HtmlContext context, ForkJoinPool pool) {
+        this.document = context.document();
+        this.partial = context.isPartial();
+        this.styleSheets = context.styleSheets();
+        this.resources = context.resources();
+        if (pool != null) {
+            context.prepareStyles(pool);
+        }
+        Map<Element, HtmlComputedStyle> styles = new IdentityHashMap<>();
+        for (Element el : document.getAllElements()) {
+            styles.put(el, context.computedStyle(el));
+        }
+        this.computedStyles = Collections.unmodifiableMap(styles);
+    }
+
+    /**
+     * Parses and styles a document.
+     *
+     * @param html the document
+     * @return the template
+     */
+    public static HtmlTemplate compile(String html) {
+        return compile(html, false);
+    }
+
+    /**
+     * Parses and styles a document or a body fragment.
+     *
+     * @param html the document or fragment
+     * @param partial {@code true} if {@code html} is a body fragment, as for {@code HtmlJPanel}
+     * @return the template
+     */
+    public static HtmlTemplate compile(String html, boolean partial) {
+        return new HtmlTemplate(new HtmlContext(html, partial), null);
+    }
+
+    /**
+     * Parses a document or a body fragment and resolves the styles of its elements in
+     * parallel on {@code pool}.
+     *
+     * @param html the document or fragment
+     * @param partial {@code true} if {@code html} is a body fragment, as for {@code HtmlJPanel}
+     * @param pool the pool to resolve styles on
+     * @return the template
+     */
+    public static HtmlTemplate compile(String html, boolean partial, ForkJoinPool pool) {
+        return new HtmlTemplate(new HtmlContext(html, partial), Objects.requireNonNull(pool));
+    }
+
+    /**
+     * @return a new context for one instance of this template
+     */
+    public HtmlContext newContext() {
+        return new HtmlContext(this);
+    }
+
+    public Document document() {
+        return document;
+    }
+
+    public List<HtmlStyleSheet> styleSheets() {
+        return styleSheets;
+    }
+
+    boolean isPartial() {
+        return partial;
+    }
+
+    HtmlResources resources() {
+        return resources;
+    }
+
+    Map<Element, HtmlComputedStyle> computedStyles() {
+        return computedStyles;
+    }
+}
@@ -0,0 +1,234 @@
+package org.xiphis.swing.intern;
+/*
+Copyright 2023 Xiphis and A. T. Curtis
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors
+   may be used to endorse or promote products derived from this software
+   without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS “AS IS” AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextLayout;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A run of text painted with {@link TextLayout}, in place of a label per word.
+ * <p>
+ * Under {@link HtmlLayout} the run is broken into line fragments that take part in line
+ * wrapping like any other inline component: the first fragment continues the current line
+ * and the last one may be followed by other components. The component's bounds cover all of
+ * its fragments, but only the fragments themselves count for {@link #contains(int, int)}, so
+ * the components sharing its first and last lines are still found there. Under any other
+ * layout manager it is a single line.
+ */
+public class HtmlText extends JComponent implements HtmlLayout.TextRun {
+
+    private String text;
+
+    // fragments placed by the layout, relative to this component
+    private final List<TextLayout> lines = new ArrayList<>();
+    private final List<Point> origins = new ArrayList<>();
+    private Rectangle placed;
+
+    private TextLayout singleLine;
+
+    public HtmlText(String text) {
+        this.text = text;
+        setOpaque(false);
+        setAlignmentX(LEFT_ALIGNMENT);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Replaces the text; the enclosing layout wraps it again.
+     *
+     * @param text the new text
+     */
+    public void setText(String text) {
+        if (!this.text.equals(text)) {
+            this.text = text;
+            singleLine = null;
+            revalidate();
+            repaint();
+        }
+    }
+
+    @Override
+    public void setFont(Font font) {
+        singleLine = null;
+        super.setFont(font);
+    }
+
+    /**
+     * @return a measurer over the whole text in the current font
+     */
+    @Override
+    public LineBreakMeasurer lineBreakMeasurer() {
+        return new LineBreakMeasurer(styledText(), fontRenderContext());
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    private AttributedCharacterIterator styledText() {
+        return new AttributedString(text, getFont().getAttributes()).getIterator();
+    }
+
+    private FontRenderContext fontRenderContext() {
+        return getFontMetrics(getFont()).getFontRenderContext();
+    }
+
+    private TextLayout singleLine() {
+        if (singleLine == null) {
+            singleLine = new TextLayout(styledText(), fontRenderContext());
+        }
+        return singleLine;
+    }
+
+    static int width(TextLayout line) {
+        return (int) Math.ceil(line.getAdvance());
+    }
+
+    /**
+     * @return the height of a line, the same as a label's in this font
+     */
+    @Override
+    public int lineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private int ascent() {
+        return getFontMetrics(getFont()).getAscent();
+    }
+
+    void clearLines() {
+        lines.clear();
+        origins.clear();
+        placed = null;
+    }
+
+    /**
+     * Records where the layout placed a fragment, in the parent's coordinates.
+     */
+    void placeLine(TextLayout line, int x, int y) {
+        lines.add(line);
+        origins.add(new Point(x, y));
+        Rectangle bounds = new Rectangle(x, y, width(line), lineHeight());
+        placed = placed == null ? bounds : placed.union(bounds);
+    }
+
+    /**
+     * Sets the bounds to cover every placed fragment.
+     */
+    void finishLines() {
+        if (placed == null) {
+            return;
+        }
+        for (Point origin : origins) {
+            origin.translate(-placed.x, -placed.y);
+        }
+        setBounds(placed);
+    }
+
+    /**
+     * @return {@code true} if the point lies on a placed fragment, or within the bounds when
+     * the run is a single line
+     */
+    @Override
+    public boolean contains(int x, int y) {
+        if (lines.isEmpty()) {
+            return super.contains(x, y);
+        }
+        int height = lineHeight();
+        for (int i = 0; i < lines.size(); i++) {
+            Point origin = origins.get(i);
+            if (x >= origin.x && x < origin.x + width(lines.get(i)) && y >= origin.y && y < origin.y + height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (isPreferredSizeSet() || text.isEmpty() || getFont() == null) {
+            return super.getPreferredSize();
+        }
+        TextLayout line = singleLine();
+        Insets insets = getInsets();
+        return new Dimension(width(line) + insets.left + insets.right, lineHeight() + insets.top + insets.bottom);
+    }
+
+    @Override
+    public Dimension getMinimumSize() {
+        return isMinimumSizeSet() ? super.getMinimumSize() : getPreferredSize();
+    }
+
+    @Override
+    public Dimension getMaximumSize() {
+        return isMaximumSizeSet() ? super.getMaximumSize() : getPreferredSize();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (text.isEmpty()) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            Object hints = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+            if (hints instanceof Map) {
+                g2.addRenderingHints((Map<?, ?>) hints);
+            }
+            g2.setColor(getForeground());
+            int ascent = ascent();
+            if (lines.isEmpty()) {
+                Insets insets = getInsets();
+                TextLayout line = singleLine();
+                line.draw(g2, insets.left, insets.top + ascent);
+            } else {
+                for (int i = 0; i < lines.size(); i++) {
+                    TextLayout line = lines.get(i);
+                    Point origin = origins.get(i);
+                    line.draw(g2, origin.x, origin.y + ascent);
+                }
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.xiphis.swing.intern.HtmlLayout;
+
+import javax.swing.*;
+import java.awt.*;
+
+// Lays out rows of inline components, as HtmlPanel renders the words of a paragraph,
+// to show how the cost of line breaking grows with the number of components.
+public class LayoutBenchmark {
+
+    public static void main(String[] args) {
+        System.out.printf("%10s %8s %12s %12s%n", "components", "width", "layout (ms)", "height");
+        for (int count : new int[] { 1000, 2500, 5000, 10000 }) {
+            for (int width : new int[] { 800, 100000 }) {
+                JPanel panel = panel(count);
+                HtmlLayout layout = (HtmlLayout) panel.getLayout();
+                panel.setSize(width, 1000000);
+
+                long best = Long.MAX_VALUE;
+                // best of several runs, the first ones warm up
+                for (int run = 0; run < 7; run++) {
+                    long t0 = System.nanoTime();
+                    layout.invalidateLayout(panel);
+                    layout.layoutContainer(panel);
+                    best = Math.min(best, System.nanoTime() - t0);
+                }
+                Component last = panel.getComponent(count - 1);
+                System.out.printf("%10d %8d %12.2f %12d%n", count, width, best / 1e6, last.getY() + last.getHeight());
+            }
+        }
+    }
+
+    private static JPanel panel(int count) {
+        StringBuilder sb = new StringBuilder("<html><body><p>");
+        for (int i = 0; i < count; i++) {
+            sb.append("word").append(i).append(' ');
+        }
+        Document document = Jsoup.parse(sb.append("</p></body></html>").toString());
+        Element p = document.selectFirst("p");
+
+        JPanel panel = new JPanel(new HtmlLayout());
+        for (int i = 0; i < count; i++) {
+            JComponent word = new JComponent() {
+            };
+            Dimension size = new Dimension(30 + i % 20, 16);
+            word.setMinimumSize(size);
+            word.setPreferredSize(size);
+            word.setMaximumSize(size);
+            // every word is a text node of the paragraph
+            panel.add(word, p.childNode(0));
+        }
+        return panel;
+    }
+}
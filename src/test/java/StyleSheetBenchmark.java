@@ -0,0 +1,110 @@
+import com.steadystate.css.parser.CSSOMParser;
+import com.steadystate.css.parser.SACParserCSS3;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.w3c.css.sac.InputSource;
+import org.xiphis.swing.intern.HtmlRule;
+import org.xiphis.swing.intern.HtmlStyleSheet;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares matching every rule against every element with the indexed lookup in
+// HtmlStyleSheet as the style sheet grows.
+public class StyleSheetBenchmark {
+    private static final String[] TAGS = { "p", "div", "span", "td", "li", "label", "input", "h1" };
+
+    public static void main(String[] args) throws Exception {
+        Document document = document(2000);
+        List<Element> elements = document.getAllElements();
+
+        System.out.printf("%8s %12s %12s %10s%n", "rules", "scan (ms)", "index (ms)", "matches");
+        for (int size : new int[] { 50, 200, 1000, 5000, 20000 }) {
+            HtmlStyleSheet sheet = styleSheet(size);
+
+            long scanTime = Long.MAX_VALUE;
+            long indexTime = Long.MAX_VALUE;
+            int scanned = 0;
+            int indexed = 0;
+            // best of several runs, the first ones warm up both paths
+            for (int run = 0; run < 5; run++) {
+                long t0 = System.nanoTime();
+                scanned = scan(sheet, elements);
+                long t1 = System.nanoTime();
+                indexed = index(sheet, elements);
+                long t2 = System.nanoTime();
+                scanTime = Math.min(scanTime, t1 - t0);
+                indexTime = Math.min(indexTime, t2 - t1);
+            }
+
+            if (scanned != indexed) {
+                throw new AssertionError("scan found " + scanned + " but index found " + indexed);
+            }
+            System.out.printf("%8d %12.2f %12.2f %10d%n", size, scanTime / 1e6, indexTime / 1e6, indexed);
+        }
+    }
+
+    private static int scan(HtmlStyleSheet sheet, List<Element> elements) {
+        int count = 0;
+        for (Element el : elements) {
+            for (HtmlRule rule : sheet.rules()) {
+                if (rule.matches(el)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int index(HtmlStyleSheet sheet, List<Element> elements) {
+        int count = 0;
+        List<HtmlRule> matched = new ArrayList<>();
+        for (Element el : elements) {
+            matched.clear();
+            sheet.match(el, matched);
+            count += matched.size();
+        }
+        return count;
+    }
+
+    private static Document document(int fields) {
+        StringBuilder sb = new StringBuilder("<html><body>");
+        for (int i = 0; i < fields; i++) {
+            String tag = TAGS[i % TAGS.length];
+            sb.append("<div class=\"row c").append(i % 97).append("\">")
+                    .append('<').append(tag).append(" id=\"f").append(i).append("\" class=\"c").append(i % 89).append(" field\">")
+                    .append("text ").append(i)
+                    .append("</").append(tag).append('>')
+                    .append("</div>");
+        }
+        return Jsoup.parse(sb.append("</body></html>").toString());
+    }
+
+    private static HtmlStyleSheet styleSheet(int rules) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rules; i++) {
+            switch (i % 5) {
+                case 0:
+                    sb.append("#f").append(i);
+                    break;
+                case 1:
+                    sb.append(".c").append(i % 1000);
+                    break;
+                case 2:
+                    sb.append(".row > ").append(TAGS[i % TAGS.length]).append(".c").append(i % 1000);
+                    break;
+                case 3:
+                    sb.append("div.c").append(i % 1000).append(' ').append(TAGS[i % TAGS.length]);
+                    break;
+                default:
+                    sb.append(TAGS[i % TAGS.length]).append(":nth-child(").append(i % 7 + 1).append(')');
+                    break;
+            }
+            sb.append(" { color: red }\n");
+        }
+        CSSOMParser parser = new CSSOMParser(new SACParserCSS3());
+        return new HtmlStyleSheet(parser.parseStyleSheet(new InputSource(new StringReader(sb.toString())), null, null));
+    }
+}
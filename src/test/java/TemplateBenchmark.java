@@ -0,0 +1,50 @@
+import org.xiphis.swing.HtmlJPanel;
+import org.xiphis.swing.intern.HtmlTemplate;
+
+// Compares opening a form from its HTML each time with instantiating it from a
+// compiled HtmlTemplate.
+public class TemplateBenchmark {
+
+    public static void main(String[] args) {
+        String html = form(200);
+        HtmlTemplate template = HtmlTemplate.compile(html, true);
+
+        System.out.printf("%10s %12s %12s%n", "opens", "cold (ms)", "template (ms)");
+        for (int opens : new int[] { 10, 50, 100 }) {
+            long coldTime = Long.MAX_VALUE;
+            long templateTime = Long.MAX_VALUE;
+            // best of several runs, the first ones warm up both paths
+            for (int run = 0; run < 5; run++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < opens; i++) {
+                    new HtmlJPanel(html);
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < opens; i++) {
+                    new HtmlJPanel(template);
+                }
+                long t2 = System.nanoTime();
+                coldTime = Math.min(coldTime, t1 - t0);
+                templateTime = Math.min(templateTime, t2 - t1);
+            }
+            System.out.printf("%10d %12.2f %12.2f%n", opens, coldTime / 1e6, templateTime / 1e6);
+        }
+    }
+
+    private static String form(int fields) {
+        StringBuilder sb = new StringBuilder("<style>\n");
+        for (int i = 0; i < 100; i++) {
+            sb.append(".c").append(i).append(" label { color: #").append(String.format("%06x", i * 2039)).append(" }\n");
+        }
+        sb.append("p { font-size: 12pt } h1 { font-weight: bold } input { color: rgb(10, 20, 30) }\n</style>\n");
+        sb.append("<h1>Form</h1>\n");
+        for (int i = 0; i < fields; i++) {
+            sb.append("<p class=\"c").append(i % 100).append("\">")
+                    .append("<label for=\"f").append(i).append("\">Field ").append(i).append("</label> ")
+                    .append("some text describing field ").append(i).append(' ')
+                    .append("<input type=\"text\" id=\"f").append(i).append("\" name=\"f").append(i).append("\">")
+                    .append("</p>\n");
+        }
+        return sb.toString();
+    }
+}